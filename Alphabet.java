@@ -0,0 +1,126 @@
+// This program describes the letters that a LetterInventory or
+// PackedLetterInventory counts. Each letter is given a position from zero up
+// to the size of the alphabet. Text is case folded for a locale, and accents
+// can optionally be stripped, before its letters are looked up.
+
+import java.text.*;
+import java.util.*;
+
+public class Alphabet {
+   public static final Alphabet ENGLISH =
+      new Alphabet("abcdefghijklmnopqrstuvwxyz", Locale.ENGLISH, false);
+   public static final Alphabet GERMAN =
+      new Alphabet("abcdefghijklmnopqrstuvwxyz\u00e4\u00f6\u00fc\u00df", Locale.GERMAN,
+         false);
+   public static final Alphabet SPANISH =
+      new Alphabet("abcdefghijklmn\u00f1opqrstuvwxyz", new Locale("es"), false);
+   public static final Alphabet TURKISH =
+      new Alphabet("abc\u00e7defg\u011fh\u0131ijklmno\u00f6prs\u015ftu\u00fcvyz",
+         new Locale("tr"), false);
+   public static final int DENSE_LIMIT = 0x800; // code points below this use a table
+   private int[] letters;
+   private Locale locale;
+   private boolean stripAccents;
+   private boolean ascii;
+   private int[] denseIndex;
+   private IntIntMap sparseIndex;
+
+   // letters: Given letters of the alphabet, in order
+   // locale: Locale whose case rules are used to fold text
+   // stripAccents: Whether to remove accents from text before looking up its
+   //               letters, so that for example an e with an acute accent
+   //               counts as an e
+   // pre: letters and locale must exist and letters must contain at least one
+   //      letter (throws IllegalArgumentException if not)
+   // post: constructs an alphabet of the given letters. Letters are folded in
+   //       the same way as text, and repeated letters are only counted once.
+   public Alphabet(String letters, Locale locale, boolean stripAccents) {
+      if (letters == null || locale == null) {
+         throw new IllegalArgumentException("letters and locale must exist");
+      }
+      this.locale = locale;
+      this.stripAccents = stripAccents;
+      int[] folded = fold(letters).codePoints().distinct().toArray();
+      if (folded.length == 0) {
+         throw new IllegalArgumentException("letters must contain at least one letter");
+      }
+      this.letters = folded;
+      int maxLetter = 0;
+      for (int letter : folded) {
+         maxLetter = Math.max(maxLetter, letter);
+      }
+      if (maxLetter < DENSE_LIMIT) {
+         denseIndex = new int[maxLetter + 1];
+         Arrays.fill(denseIndex, -1);
+         for (int i = 0; i < folded.length; i++) {
+            denseIndex[folded[i]] = i;
+         }
+      } else {
+         sparseIndex = new IntIntMap(folded.length);
+         for (int i = 0; i < folded.length; i++) {
+            sparseIndex.put(folded[i], i);
+         }
+      }
+      ascii = !stripAccents && Arrays.equals(folded,
+         "abcdefghijklmnopqrstuvwxyz".codePoints().toArray());
+   }
+
+   // post: returns the number of letters in the alphabet
+   public int size() {
+      return letters.length;
+   }
+
+   // post: returns whether the alphabet is exactly 'a' to 'z' without accent
+   //       stripping, so that letters can be found one char at a time
+   public boolean isAscii() {
+      return ascii;
+   }
+
+   // index: Given position in the alphabet
+   // pre: 0 <= index < size() (throws IllegalArgumentException if not)
+   // post: returns the code point of the letter at index
+   public int letterAt(int index) {
+      if (index < 0 || index >= letters.length) {
+         throw new IllegalArgumentException("index: " + index);
+      }
+      return letters[index];
+   }
+
+   // codePoint: Given code point of already folded text
+   // post: returns the position of codePoint in the alphabet, or -1 if it is
+   //       not one of the letters
+   public int indexOf(int codePoint) {
+      if (denseIndex != null) {
+         if (codePoint < 0 || codePoint >= denseIndex.length) {
+            return -1;
+         }
+         return denseIndex[codePoint];
+      }
+      return sparseIndex.get(codePoint, -1);
+   }
+
+   // text: Given text
+   // pre: text must exist (throws IllegalArgumentException if not)
+   // post: returns text in lower case for the locale of the alphabet, with
+   //       accents removed if the alphabet strips them, and otherwise with
+   //       accents combined with their letters
+   public String fold(String text) {
+      if (text == null) {
+         throw new IllegalArgumentException("text must exist");
+      }
+      String result = text.toLowerCase(locale);
+      if (stripAccents) {
+         result = Normalizer.normalize(result, Normalizer.Form.NFD);
+         StringBuilder stripped = new StringBuilder(result.length());
+         for (int i = 0; i < result.length(); i++) {
+            if (Character.getType(result.charAt(i)) != Character.NON_SPACING_MARK) {
+               stripped.append(result.charAt(i));
+            }
+         }
+         result = stripped.toString();
+      } else if (!Normalizer.isNormalized(result, Normalizer.Form.NFC)) {
+         result = Normalizer.normalize(result, Normalizer.Form.NFC);
+      }
+      return result;
+   }
+}
@@ -0,0 +1,225 @@
+// This program indexes a dictionary by the letter counts of its words so that
+// the words that fit inside a phrase can be found without scanning the whole
+// dictionary. Letters come from an Alphabet, which is English unless another
+// one is given.
+//
+// The letter counts are also grouped by the set of letters they use, kept as
+// a mask with one bit for each letter of the alphabet, so that a whole group
+// can be skipped when the phrase lacks one of its letters. A long has 64
+// bits, so in an alphabet of more letters than that, letter i shares bit
+// i % 64 with other letters. Counts that use different letters may then share
+// a group and are only told apart by their counts: the words found are the
+// same, but fewer groups are skipped at once.
+
+import java.util.*;
+
+public class AnagramIndex {
+   public static final int TOTAL_CHARACTERS = 'z' - 'a' + 1;
+   private Alphabet alphabet;
+   private MaskBucket[] buckets;
+   private int wordCount;
+
+   // dictionary: Given collection of words
+   // pre: dictionary must exist (throws IllegalArgumentException if not)
+   // post: Groups the words of the dictionary by their letter counts and groups
+   //       the letter counts by the set of letters they use
+   public AnagramIndex(Collection<String> dictionary) {
+      this(dictionary, Alphabet.ENGLISH);
+   }
+
+   // dictionary: Given collection of words
+   // alphabet: Alphabet whose letters are counted
+   // pre: dictionary and alphabet must exist (throws IllegalArgumentException
+   //      if not)
+   // post: Groups the words of the dictionary by their counts of the letters of
+   //       alphabet and groups the letter counts by the set of letters they use
+   public AnagramIndex(Collection<String> dictionary, Alphabet alphabet) {
+      if (dictionary == null || alphabet == null) {
+         throw new IllegalArgumentException("The dictionary and alphabet must exist");
+      }
+      this.alphabet = alphabet;
+      Map<String, WordGroup> groups = new HashMap<String, WordGroup>();
+      for (String word : dictionary) {
+         int[] counts = new int[alphabet.size()];
+         countLetters(word, counts, alphabet);
+         String signature = signature(counts);
+         WordGroup group = groups.get(signature);
+         if (group == null) {
+            group = new WordGroup(counts);
+            groups.put(signature, group);
+         }
+         group.words.add(word);
+         wordCount++;
+      }
+      Map<Long, MaskBucket> byMask = new HashMap<Long, MaskBucket>();
+      for (WordGroup group : groups.values()) {
+         MaskBucket bucket = byMask.get(group.mask);
+         if (bucket == null) {
+            bucket = new MaskBucket(group.mask, alphabet.size());
+            byMask.put(group.mask, bucket);
+         }
+         bucket.add(group);
+      }
+      buckets = byMask.values().toArray(new MaskBucket[byMask.size()]);
+      for (MaskBucket bucket : buckets) {
+         bucket.seal();
+      }
+   }
+
+   // post: Returns the number of words in the index
+   public int size() {
+      return wordCount;
+   }
+
+   // phrase: Given phrase
+   // pre: phrase must exist (throws IllegalArgumentException if not)
+   // post: Returns an alphabetically sorted set containing all indexed words
+   //       that can be made using the letters in phrase
+   public SortedSet<String> getWords(String phrase) {
+      if (phrase == null) {
+         throw new IllegalArgumentException("The phrase must exist");
+      }
+      int[] counts = new int[alphabet.size()];
+      long mask = countLetters(phrase, counts, alphabet);
+      int size = 0;
+      for (int count : counts) {
+         size += count;
+      }
+      SortedSet<String> words = new TreeSet<String>();
+      for (MaskBucket bucket : buckets) {
+         if ((bucket.mask & ~mask) == 0 && bucket.minSize <= size
+               && fits(bucket.minCounts, counts)) {
+            for (WordGroup group : bucket.groups) {
+               if (group.size > size) {
+                  break; // groups are sorted by size
+               }
+               if (fits(group.counts, counts)) {
+                  words.addAll(group.words);
+               }
+            }
+         }
+      }
+      return words;
+   }
+
+   // word: Given word
+   // counts: Array that receives the count of each letter in word
+   // post: Adds the count of each letter of word (ignoring case and any
+   //       non-letters) to counts and returns a mask with bit i set for each
+   //       letter ('a' + i) that word contains
+   public static int countLetters(String word, int[] counts) {
+      int mask = 0;
+      for (int i = 0; i < word.length(); i++) {
+         int index = Character.toLowerCase(word.charAt(i)) - 'a';
+         if (index >= 0 && index < TOTAL_CHARACTERS) {
+            counts[index]++;
+            mask |= 1 << index;
+         }
+      }
+      return mask;
+   }
+
+   // word: Given word
+   // counts: Array that receives the count of each letter of alphabet in word
+   // alphabet: Alphabet whose letters are counted
+   // post: Adds the count of each letter of alphabet in word (after folding
+   //       word for the alphabet) to counts and returns a mask with bit
+   //       (i % 64) set for each letter at position i that word contains
+   public static long countLetters(String word, int[] counts, Alphabet alphabet) {
+      if (alphabet.isAscii()) {
+         return countLetters(word, counts);
+      }
+      String letters = alphabet.fold(word);
+      long mask = 0;
+      for (int i = 0; i < letters.length(); ) {
+         int letter = letters.codePointAt(i);
+         i += Character.charCount(letter);
+         int index = alphabet.indexOf(letter);
+         if (index >= 0) {
+            counts[index]++;
+            mask |= 1L << index;
+         }
+      }
+      return mask;
+   }
+
+   // post: Returns whether every count in needed is at most the matching count
+   //       in available
+   private static boolean fits(int[] needed, int[] available) {
+      for (int i = 0; i < needed.length; i++) {
+         if (needed[i] > available[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // post: Returns a string that is equal for two arrays of letter counts
+   //       exactly when the counts are equal
+   private static String signature(int[] counts) {
+      char[] result = new char[counts.length];
+      for (int i = 0; i < counts.length; i++) {
+         result[i] = (char) counts[i];
+      }
+      return new String(result);
+   }
+
+   // This class stores all dictionary words that share the same letter counts
+   private static class WordGroup {
+      private int[] counts;
+      private long mask;
+      private int size;
+      private List<String> words;
+
+      // counts: Given letter counts shared by every word in the group
+      public WordGroup(int[] counts) {
+         this.counts = counts;
+         for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+               mask |= 1L << i;
+               size += counts[i];
+            }
+         }
+         words = new ArrayList<String>();
+      }
+   }
+
+   // This class stores all word groups with the same mask of letters, along
+   // with the smallest count of each letter among them so that the whole
+   // bucket can be skipped when a phrase is too short for any of its groups
+   private static class MaskBucket {
+      private long mask;
+      private int minSize;
+      private int[] minCounts;
+      private List<WordGroup> groups;
+
+      // mask: Given set of letters used by every group in the bucket
+      // letters: Number of letters in the alphabet
+      public MaskBucket(long mask, int letters) {
+         this.mask = mask;
+         minSize = Integer.MAX_VALUE;
+         minCounts = new int[letters];
+         Arrays.fill(minCounts, Integer.MAX_VALUE);
+         groups = new ArrayList<WordGroup>();
+      }
+
+      // group: Given group using the letters of this bucket
+      // post: Adds the group and tightens the lower bounds of the bucket
+      public void add(WordGroup group) {
+         groups.add(group);
+         minSize = Math.min(minSize, group.size);
+         for (int i = 0; i < minCounts.length; i++) {
+            minCounts[i] = Math.min(minCounts[i], group.counts[i]);
+         }
+      }
+
+      // post: Sorts the groups from fewest to most letters
+      public void seal() {
+         Collections.sort(groups, new Comparator<WordGroup>() {
+            public int compare(WordGroup first, WordGroup second) {
+               return Integer.compare(first.size, second.size);
+            }
+         });
+      }
+   }
+}
@@ -0,0 +1,502 @@
+// This program searches for every anagram of a phrase that can be formed from a
+// set of candidate words. It narrows the candidate words at each level of the
+// search and remembers which groups of remaining letters can be completed.
+// Letters are counted in packed inventories of one byte per letter, or of two
+// bytes per letter when a word or phrase has more of one letter than a byte
+// holds.
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+public class AnagramSearch {
+   private static final int UNSOLVABLE = Integer.MAX_VALUE;
+   private static final int SPLIT_LETTERS = 8; // fewest letters worth forking a task for
+   private String[] words;
+   private PackedLetterInventory[] wordInventories;
+   private int[] wordSizes;
+   private int[] allWords; // index of every word, in search order
+   private boolean canonical;
+   private Alphabet alphabet;
+   private boolean wide; // whether the inventories have two bytes per letter
+
+   // possibleWords: Words that may be used in an anagram, in the order in which
+   //                they should be tried
+   // canonical: Whether to produce each group of words only once, in
+   //            non-decreasing order, rather than in every order
+   // pre: possibleWords must exist (throws IllegalArgumentException if not)
+   // post: Initializes a new search over the given words using English letters
+   public AnagramSearch(SortedSet<String> possibleWords, boolean canonical) {
+      this(possibleWords, canonical, Alphabet.ENGLISH);
+   }
+
+   // possibleWords: Words that may be used in an anagram, in the order in which
+   //                they should be tried
+   // canonical: Whether to produce each group of words only once, in
+   //            non-decreasing order, rather than in every order
+   // alphabet: Alphabet whose letters must be used up by an anagram
+   // pre: possibleWords and alphabet must exist (throws IllegalArgumentException
+   //      if not)
+   // post: Initializes a new search over the given words
+   public AnagramSearch(SortedSet<String> possibleWords, boolean canonical,
+         Alphabet alphabet) {
+      if (possibleWords == null || alphabet == null) {
+         throw new IllegalArgumentException("The possible words and alphabet must exist");
+      }
+      this.alphabet = alphabet;
+      List<String> usable = new ArrayList<String>();
+      List<PackedLetterInventory> inventories = new ArrayList<PackedLetterInventory>();
+      for (String word : possibleWords) {
+         PackedLetterInventory inventory = new PackedLetterInventory(word, alphabet, true);
+         if (!inventory.isEmpty()) { // skip words with no letters
+            usable.add(word);
+            inventories.add(inventory);
+            wide |= inventory.largestCount() > PackedLetterInventory.MAX_COUNT;
+         }
+      }
+      words = usable.toArray(new String[usable.size()]);
+      wordInventories = inventories.toArray(new PackedLetterInventory[inventories.size()]);
+      for (int i = 0; i < wordInventories.length && !wide; i++) {
+         wordInventories[i] = wordInventories[i].copy(false);
+      }
+      wordSizes = new int[words.length];
+      allWords = new int[words.length];
+      for (int i = 0; i < words.length; i++) {
+         wordSizes[i] = wordInventories[i].size();
+         allWords[i] = i;
+      }
+      this.canonical = canonical;
+   }
+
+   // narrow: Search whose inventories have one byte per letter
+   // post: Initializes a search over the same words as narrow whose
+   //       inventories have two bytes per letter
+   private AnagramSearch(AnagramSearch narrow) {
+      words = narrow.words;
+      wordSizes = narrow.wordSizes;
+      allWords = narrow.allWords;
+      canonical = narrow.canonical;
+      alphabet = narrow.alphabet;
+      wide = true;
+      wordInventories = new PackedLetterInventory[words.length];
+      for (int i = 0; i < words.length; i++) {
+         wordInventories[i] = narrow.wordInventories[i].copy(true);
+      }
+   }
+
+   // phrase: Given phrase
+   // max: Maximum number of words to print in each anagram (if 0, no maximum)
+   // output: Stream to which the anagrams are printed
+   // pre: phrase and output must exist and max must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: Prints all anagrams that can be formed using every letter in phrase
+   //       and that include at most max words total
+   public void print(String phrase, int max, PrintStream output) {
+      if (output == null) {
+         throw new IllegalArgumentException("The output must exist");
+      }
+      Iterator<List<String>> anagrams = iterator(phrase, max);
+      while (anagrams.hasNext()) {
+         output.println(anagrams.next().toString());
+      }
+   }
+
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // pre: phrase must exist, max must be nonnegative and no letter may occur
+   //      more than PackedLetterInventory.MAX_WIDE_COUNT times in phrase
+   //      (throws IllegalArgumentException if not)
+   // post: Returns an iterator over all anagrams that can be formed using every
+   //       letter in phrase and that include at most max words total, in the
+   //       order print prints them. Each anagram is found only when next is
+   //       called, so the search can be stopped at any point.
+   public Iterator<List<String>> iterator(String phrase, int max) {
+      if (phrase == null || max < 0) {
+         throw new IllegalArgumentException("The phrase must exist and max must be "
+            + "nonnegative");
+      }
+      if (needsWidening(phrase)) {
+         return new AnagramSearch(this).iterator(phrase, max);
+      }
+      return new AnagramIterator(phrase, max);
+   }
+
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // pre: phrase must exist and max must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: Returns a sequential stream of the anagrams returned by iterator.
+   //       The search only runs as far as the stream is consumed.
+   public Stream<List<String>> stream(String phrase, int max) {
+      Spliterator<List<String>> anagrams = Spliterators.spliteratorUnknownSize(
+         iterator(phrase, max), Spliterator.ORDERED | Spliterator.NONNULL);
+      return StreamSupport.stream(anagrams, false);
+   }
+
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // ordered: Whether the anagrams must be returned in the order print prints
+   //          them; if false they are returned in the order they are found
+   // pool: Pool whose threads run the search
+   // pre: phrase and pool must exist and max must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: Returns all anagrams that can be formed using every letter in phrase
+   //       and that include at most max words total. The search is split into
+   //       a task for each word chosen while many letters remain, and the
+   //       tasks are shared among the threads of pool by work stealing.
+   public List<List<String>> findAll(String phrase, int max, boolean ordered,
+         ForkJoinPool pool) {
+      if (phrase == null || pool == null || max < 0) {
+         throw new IllegalArgumentException("The phrase and pool must exist and max "
+            + "must be nonnegative");
+      }
+      if (needsWidening(phrase)) {
+         return new AnagramSearch(this).findAll(phrase, max, ordered, pool);
+      }
+      PackedLetterInventory letters = new PackedLetterInventory(phrase, alphabet, wide);
+      int[] candidates = new int[words.length];
+      for (int i = 0; i < candidates.length; i++) {
+         candidates[i] = i;
+      }
+      Queue<List<String>> unordered = null;
+      if (!ordered) {
+         unordered = new ConcurrentLinkedQueue<List<String>>();
+      }
+      SearchTask search = new SearchTask(max,
+         new ConcurrentHashMap<PackedLetterInventory, Integer>(), unordered,
+         new ArrayList<String>(), letters, letters.size(), candidates,
+         candidates.length);
+      List<List<String>> result = pool.invoke(search);
+      if (!ordered) {
+         result = new ArrayList<List<String>>(unordered);
+      }
+      return result;
+   }
+
+   // fewestWords: Results already found during the current search
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // anagrams: Words chosen so far
+   // letters: Letters of the phrase not yet used by the chosen words
+   // remaining: Number of letters in letters
+   // candidates: Indexes of the words that fit in the letters, in search order
+   // candidateCount: Number of entries in candidates that are in use
+   // found: List to which completed anagrams are added
+   // post: Adds all anagrams that start with the chosen words, use every letter
+   //       in letters and include at most max words total to found
+   private void findAll(Map<PackedLetterInventory, Integer> fewestWords, int max,
+         ArrayList<String> anagrams, PackedLetterInventory letters, int remaining, int[] candidates,
+         int candidateCount, Collection<List<String>> found) {
+      if (remaining == 0) {
+         found.add(Collections.unmodifiableList(new ArrayList<String>(anagrams)));
+         return;
+      }
+      int wordsLeft = (max == 0) ? UNSOLVABLE : max - anagrams.size();
+      for (int i = 0; i < candidateCount; i++) {
+         int word = candidates[i];
+         if (letters.contains(wordInventories[word])) {
+            letters.subtract(wordInventories[word]);
+            int nextRemaining = remaining - wordSizes[word];
+            if (wordsNeeded(fewestWords, letters, nextRemaining, candidates,
+                  candidateCount) < wordsLeft) {
+               int[] nextCandidates = narrow(candidates, candidateCount,
+                  canonical ? i : 0, letters);
+               anagrams.add(words[word]);
+               findAll(fewestWords, max, anagrams, letters, nextRemaining,
+                  nextCandidates, nextCandidates.length, found);
+               anagrams.remove(anagrams.size() - 1);
+            }
+            letters.add(wordInventories[word]);
+         }
+      }
+   }
+
+   // post: Returns whether the inventories have one byte per letter but phrase
+   //       has more of some letter than a byte holds
+   private boolean needsWidening(String phrase) {
+      return !wide && new PackedLetterInventory(phrase, alphabet, true).largestCount()
+         > PackedLetterInventory.MAX_COUNT;
+   }
+
+   // start: Position in candidates of the first word to keep
+   // post: Returns the candidates from start onward that fit in letters
+   private int[] narrow(int[] candidates, int candidateCount, int start, PackedLetterInventory letters) {
+      int[] result = new int[candidateCount - start];
+      int count = 0;
+      for (int i = start; i < candidateCount; i++) {
+         if (letters.contains(wordInventories[candidates[i]])) {
+            result[count] = candidates[i];
+            count++;
+         }
+      }
+      return Arrays.copyOf(result, count);
+   }
+
+   // fewestWords: Results already found during the current search
+   // letters: Letters left to use after choosing a word
+   // remaining: Number of letters in letters
+   // candidates: Indexes of the words the word was chosen from
+   // candidateCount: Number of entries in candidates that are in use
+   // post: Returns the fewest words that use every letter in letters, as
+   //       fewestWords does. In canonical mode the candidates leave out the
+   //       words before the one chosen at the level above, but results are
+   //       remembered by the letters alone, so they are always found from
+   //       every word; otherwise the candidates already include every word
+   //       fitting in letters.
+   private int wordsNeeded(Map<PackedLetterInventory, Integer> fewestWords,
+         PackedLetterInventory letters, int remaining, int[] candidates,
+         int candidateCount) {
+      if (canonical) {
+         candidates = allWords;
+         candidateCount = allWords.length;
+      }
+      return fewestWords(fewestWords, letters, remaining, candidates, candidateCount);
+   }
+
+   // fewestWords: Results already found during the current search
+   // letters: Letters left to use
+   // remaining: Number of letters in letters
+   // candidates: Indexes of words that include every word fitting in letters
+   // candidateCount: Number of entries in candidates that are in use
+   // post: Returns the fewest words that use every letter in letters, or
+   //       UNSOLVABLE if no group of words does, and remembers the result
+   private int fewestWords(Map<PackedLetterInventory, Integer> fewestWords, PackedLetterInventory letters,
+         int remaining, int[] candidates, int candidateCount) {
+      if (remaining == 0) {
+         return 0;
+      }
+      Integer known = fewestWords.get(letters); // looked up without copying letters
+      if (known != null) {
+         return known;
+      }
+      int[] nextCandidates = new int[candidateCount];
+      int nextCount = 0;
+      for (int i = 0; i < candidateCount; i++) {
+         if (letters.contains(wordInventories[candidates[i]])) {
+            nextCandidates[nextCount] = candidates[i];
+            nextCount++;
+         }
+      }
+      int result = UNSOLVABLE;
+      for (int i = 0; i < nextCount && result > 1; i++) {
+         int word = nextCandidates[i];
+         letters.subtract(wordInventories[word]);
+         int rest = fewestWords(fewestWords, letters, remaining - wordSizes[word],
+            nextCandidates, nextCount);
+         letters.add(wordInventories[word]);
+         if (rest != UNSOLVABLE) {
+            result = Math.min(result, rest + 1);
+         }
+      }
+      fewestWords.put(letters.copy(), result);
+      return result;
+   }
+
+   // This class walks the search tree with an explicit stack, stopping each
+   // time it completes an anagram so that anagrams are produced on demand.
+   // Each level of the stack keeps the words that still fit, the next word to
+   // try and the word currently chosen at that level.
+   private class AnagramIterator implements Iterator<List<String>> {
+      private int max;
+      private PackedLetterInventory letters;
+      private int remaining;
+      private Map<PackedLetterInventory, Integer> fewestWords;
+      private ArrayList<String> anagrams;
+      private int[][] candidates;
+      private int[] candidateCounts;
+      private int[] nextChoice;
+      private int[] chosen;
+      private int depth;
+      private List<String> nextAnagram;
+
+      // phrase: Given phrase
+      // max: Maximum number of words in each anagram (if 0, no maximum)
+      public AnagramIterator(String phrase, int max) {
+         this.max = max;
+         letters = new PackedLetterInventory(phrase, alphabet, wide);
+         remaining = letters.size();
+         fewestWords = new HashMap<PackedLetterInventory, Integer>();
+         anagrams = new ArrayList<String>();
+         int levels = Math.max(remaining, 1); // every word uses at least one letter
+         candidates = new int[levels][];
+         candidateCounts = new int[levels];
+         nextChoice = new int[levels];
+         chosen = new int[levels];
+         candidates[0] = new int[words.length];
+         for (int i = 0; i < words.length; i++) {
+            candidates[0][i] = i;
+         }
+         candidateCounts[0] = words.length;
+         chosen[0] = -1;
+         if (remaining == 0) {
+            nextAnagram = Collections.emptyList();
+            depth = -1;
+         } else {
+            advance();
+         }
+      }
+
+      // post: Returns whether there is another anagram
+      public boolean hasNext() {
+         return nextAnagram != null;
+      }
+
+      // pre: there must be another anagram (throws NoSuchElementException if not)
+      // post: Returns the next anagram and searches for the one after it
+      public List<String> next() {
+         if (nextAnagram == null) {
+            throw new NoSuchElementException();
+         }
+         List<String> result = nextAnagram;
+         nextAnagram = null;
+         advance();
+         return result;
+      }
+
+      // post: Continues the search until the next anagram is found or the
+      //       search is complete
+      private void advance() {
+         while (depth >= 0) {
+            if (chosen[depth] >= 0) { // undo the word chosen last time
+               letters.add(wordInventories[chosen[depth]]);
+               remaining += wordSizes[chosen[depth]];
+               anagrams.remove(anagrams.size() - 1);
+               chosen[depth] = -1;
+            }
+            int wordsLeft = (max == 0) ? UNSOLVABLE : max - anagrams.size();
+            int[] choices = candidates[depth];
+            int choiceCount = candidateCounts[depth];
+            int i = nextChoice[depth];
+            while (i < choiceCount && chosen[depth] < 0) {
+               int word = choices[i];
+               if (letters.contains(wordInventories[word])) {
+                  letters.subtract(wordInventories[word]);
+                  if (wordsNeeded(fewestWords, letters, remaining - wordSizes[word],
+                        choices, choiceCount) < wordsLeft) {
+                     chosen[depth] = word;
+                  } else {
+                     letters.add(wordInventories[word]);
+                  }
+               }
+               i++;
+            }
+            nextChoice[depth] = i;
+            if (chosen[depth] < 0) {
+               depth--;
+            } else {
+               int word = chosen[depth];
+               remaining -= wordSizes[word];
+               anagrams.add(words[word]);
+               if (remaining == 0) {
+                  nextAnagram = Collections.unmodifiableList(
+                     new ArrayList<String>(anagrams));
+                  return;
+               }
+               push(canonical ? i - 1 : 0);
+            }
+         }
+      }
+
+      // start: Position in the current candidates of the first word that may be
+      //        chosen at the next level
+      // post: Adds a level holding the candidates that fit the remaining letters
+      private void push(int start) {
+         int[] choices = candidates[depth];
+         int choiceCount = candidateCounts[depth];
+         depth++;
+         if (candidates[depth] == null || candidates[depth].length < choiceCount - start) {
+            // a later branch may keep more words than the first one at this depth
+            candidates[depth] = new int[choiceCount - start];
+         }
+         int count = 0;
+         for (int j = start; j < choiceCount; j++) {
+            if (letters.contains(wordInventories[choices[j]])) {
+               candidates[depth][count] = choices[j];
+               count++;
+            }
+         }
+         candidateCounts[depth] = count;
+         nextChoice[depth] = 0;
+         chosen[depth] = -1;
+      }
+   }
+
+   // This class searches the part of the search tree below a group of chosen
+   // words. While many letters remain it forks a task for each word that can
+   // be chosen next, giving each its own copy of the letters and its own list
+   // of anagrams; smaller parts of the tree are searched directly.
+   private class SearchTask extends RecursiveTask<List<List<String>>> {
+      private static final long serialVersionUID = 1L;
+      private int max;
+      private Map<PackedLetterInventory, Integer> fewestWords;
+      private Queue<List<String>> unordered;
+      private ArrayList<String> anagrams;
+      private PackedLetterInventory letters;
+      private int remaining;
+      private int[] candidates;
+      private int candidateCount;
+
+      // max: Maximum number of words in each anagram (if 0, no maximum)
+      // fewestWords: Results shared by every task of the search
+      // unordered: Queue to which anagrams are added as soon as they are found,
+      //            or null to return them in order from compute
+      // anagrams: Words chosen so far
+      // letters: Letters of the phrase not yet used, owned by this task
+      // remaining: Number of letters in letters
+      // candidates: Indexes of the words that fit in the letters, in search order
+      // candidateCount: Number of entries in candidates that are in use
+      public SearchTask(int max, Map<PackedLetterInventory, Integer> fewestWords,
+            Queue<List<String>> unordered, ArrayList<String> anagrams, PackedLetterInventory letters,
+            int remaining, int[] candidates, int candidateCount) {
+         this.max = max;
+         this.fewestWords = fewestWords;
+         this.unordered = unordered;
+         this.anagrams = anagrams;
+         this.letters = letters;
+         this.remaining = remaining;
+         this.candidates = candidates;
+         this.candidateCount = candidateCount;
+      }
+
+      // post: Returns the anagrams found below the chosen words in the order
+      //       print prints them, or an empty list if they went to unordered
+      protected List<List<String>> compute() {
+         List<List<String>> found = new ArrayList<List<String>>();
+         if (remaining < SPLIT_LETTERS) {
+            Collection<List<String>> target = found;
+            if (unordered != null) {
+               target = unordered;
+            }
+            findAll(fewestWords, max, anagrams, letters, remaining, candidates,
+               candidateCount, target);
+            return found;
+         }
+         int wordsLeft = (max == 0) ? UNSOLVABLE : max - anagrams.size();
+         List<SearchTask> branches = new ArrayList<SearchTask>();
+         for (int i = 0; i < candidateCount; i++) {
+            int word = candidates[i];
+            if (letters.contains(wordInventories[word])) {
+               letters.subtract(wordInventories[word]);
+               int nextRemaining = remaining - wordSizes[word];
+               if (wordsNeeded(fewestWords, letters, nextRemaining, candidates,
+                     candidateCount) < wordsLeft) {
+                  int[] nextCandidates = narrow(candidates, candidateCount,
+                     canonical ? i : 0, letters);
+                  ArrayList<String> nextAnagrams = new ArrayList<String>(anagrams);
+                  nextAnagrams.add(words[word]);
+                  SearchTask branch = new SearchTask(max, fewestWords, unordered,
+                     nextAnagrams, letters.copy(), nextRemaining, nextCandidates,
+                     nextCandidates.length);
+                  branch.fork();
+                  branches.add(branch);
+               }
+               letters.add(wordInventories[word]);
+            }
+         }
+         for (SearchTask branch : branches) {
+            found.addAll(branch.join());
+         }
+         return found;
+      }
+   }
+}
@@ -2,18 +2,32 @@
 // match the given word or phrase.  
 
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
 
 public class Anagrams {
-   private Set<String> allWords;
+   private AnagramIndex index;
+   private Alphabet alphabet;
 
    // dictionary: Given collection of words 
    // pre: Throws IllegalArgumentException if dictionary is null
    // post: Initializes a new anagram solver using the given dictionary of words
+   //       and indexes the words by their letter counts
    public Anagrams(Set<String> dictionary) {
-      if (dictionary == null) {
-         throw new IllegalArgumentException("The dictionary must exist");
+      this(dictionary, Alphabet.ENGLISH);
+   }
+   
+   // dictionary: Given collection of words 
+   // alphabet: Alphabet of the words, used to fold case and count letters
+   // pre: Throws IllegalArgumentException if dictionary or alphabet is null
+   // post: Initializes a new anagram solver using the given dictionary of words
+   //       and indexes the words by their counts of the letters of alphabet
+   public Anagrams(Set<String> dictionary, Alphabet alphabet) {
+      if (dictionary == null || alphabet == null) {
+         throw new IllegalArgumentException("The dictionary and alphabet must exist");
       }
-      allWords = dictionary;
+      this.alphabet = alphabet;
+      index = new AnagramIndex(dictionary, alphabet);
    }
    
    // phrase: Given phrase
@@ -24,14 +38,7 @@ public class Anagrams {
       if (phrase == null) {
          throw new IllegalArgumentException("The phrase must exist");
       }
-      SortedSet<String> words = new TreeSet<String>();
-      LetterInventory letters = new LetterInventory(phrase);
-      for (String currentWord : allWords) {
-         if (letters.contains(currentWord)) {
-            words.add(currentWord);
-         }
-      }
-      return words;
+      return index.getWords(phrase);
    }
    
    // phrase: Given phrase
@@ -53,32 +60,46 @@ public class Anagrams {
       if (phrase == null || max < 0) {
          throw new IllegalArgumentException("The phrase must exist and max must be nonnegative");
       }
-      ArrayList<String> anagrams = new ArrayList<String>();
-      SortedSet<String> possibleWords = getWords(phrase);
-      LetterInventory letters = new LetterInventory(phrase);
-      print(max, anagrams, possibleWords, letters);
+      AnagramSearch search = new AnagramSearch(getWords(phrase), false, alphabet);
+      search.print(phrase, max, System.out);
    }
    
-   // max: Maximum number of words to print in each anagram (if 0, no maximum)
-   // anagrams: List of anagrams formed using all of the letters of a given phrase
-   // possibleWords: Words in the dictionary that can be formed using remaining letters
-   // letters: All letters from the given phrase
-   // post: Prints all anagrams that can be formed using every letter in letters and
-   //       that include at most max words total
-   private void print(int max, ArrayList<String> anagrams,
-         SortedSet<String> possibleWords, LetterInventory letters) {
-      if (letters.isEmpty() && anagrams.size() <= max || letters.isEmpty() && max == 0) {
-         System.out.println(anagrams.toString());
-      } else {
-         for (String chosenWord : possibleWords) { 
-            if (letters.contains(chosenWord)) {
-               anagrams.add(chosenWord);
-               letters.subtract(chosenWord);
-               print(max, anagrams, possibleWords, letters);
-               letters.add(chosenWord);
-               anagrams.remove(anagrams.size() - 1);
-            }
-         }
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // pre: Throws IllegalArgumentException if phrase is null or if max is less than zero
+   // post: Returns an iterator over the anagrams that print(phrase, max) would
+   //       print, in the same order. Anagrams are only searched for as next is
+   //       called, so callers can stop after as many as they need.
+   public Iterator<List<String>> iterator(String phrase, int max) {
+      if (phrase == null || max < 0) {
+         throw new IllegalArgumentException("The phrase must exist and max must be nonnegative");
+      }
+      return new AnagramSearch(getWords(phrase), false, alphabet).iterator(phrase, max);
+   }
+   
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // pre: Throws IllegalArgumentException if phrase is null or if max is less than zero
+   // post: Returns a lazy stream of the anagrams returned by iterator(phrase, max)
+   public Stream<List<String>> stream(String phrase, int max) {
+      if (phrase == null || max < 0) {
+         throw new IllegalArgumentException("The phrase must exist and max must be nonnegative");
+      }
+      return new AnagramSearch(getWords(phrase), false, alphabet).stream(phrase, max);
+   }
+   
+   // phrase: Given phrase
+   // max: Maximum number of words in each anagram (if 0, no maximum)
+   // ordered: Whether to return the anagrams in the order print prints them
+   //          rather than in the order they are found
+   // pre: Throws IllegalArgumentException if phrase is null or if max is less than zero
+   // post: Returns all anagrams that can be formed using every letter in phrase
+   //       and that include at most max words total, searching on every core
+   public List<List<String>> findAll(String phrase, int max, boolean ordered) {
+      if (phrase == null || max < 0) {
+         throw new IllegalArgumentException("The phrase must exist and max must be nonnegative");
       }
+      return new AnagramSearch(getWords(phrase), false, alphabet).findAll(phrase, max, ordered,
+         ForkJoinPool.commonPool());
    }
-}
\ No newline at end of file
+}
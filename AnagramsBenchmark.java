@@ -0,0 +1,194 @@
+// This program compares the time taken to print the anagrams of long phrases
+// by the original backtracking search, by AnagramSearch and by AnagramSearch
+// running in parallel on every core. It checks that all three produce exactly
+// the same lines, and that the canonical search finds each of those anagrams
+// exactly once. Before the timings, the same checks are run on small
+// dictionaries built to reach the edge cases of the search.
+//
+// usage: java AnagramsBenchmark <dictionary file> [max] [phrase ...]
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+public class AnagramsBenchmark {
+   public static final String[] DEFAULT_PHRASES = {
+      "george walker bush",      // 16 letters
+      "barbara anne bush",       // 15 letters
+      "programming pearls",      // 17 letters
+      "university washington",   // 20 letters
+   };
+   public static final int DEFAULT_MAX = 3;
+   public static final String[][] CHECK_DICTIONARIES = {
+      // a later branch keeps more words than the first one at the same depth
+      {"a", "abb", "abbb", "ba", "bb"},
+      // the same leftover letters are reached with different words still allowed
+      {"abab", "ac", "acb", "bb", "bcb", "c", "caab", "cbb", "ccb", "ccbb"},
+      // more of one letter than a byte of a packed inventory holds
+      {"aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", "b", "c"},
+   };
+   public static final String[] CHECK_PHRASES = {"bbbbbbab", "abcbabcb",
+      "c" + CHECK_DICTIONARIES[2][0] + CHECK_DICTIONARIES[2][0]};
+   public static final int[] CHECK_MAXES = {3, 0, 0};
+
+   public static void main(String[] args) throws FileNotFoundException {
+      if (args.length < 1) {
+         System.out.println("usage: java AnagramsBenchmark <dictionary file> [max] [phrase ...]");
+         return;
+      }
+      Set<String> dictionary = new HashSet<String>();
+      Scanner input = new Scanner(new File(args[0]));
+      while (input.hasNextLine()) {
+         dictionary.add(input.nextLine().trim().toLowerCase());
+      }
+      int max = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_MAX;
+      String[] phrases = DEFAULT_PHRASES;
+      if (args.length > 2) {
+         phrases = Arrays.copyOfRange(args, 2, args.length);
+      }
+      for (int i = 0; i < CHECK_PHRASES.length; i++) {
+         SortedSet<String> words = new TreeSet<String>(Arrays.asList(CHECK_DICTIONARIES[i]));
+         ChecksumStream original = new ChecksumStream();
+         printOriginal(CHECK_PHRASES[i], CHECK_MAXES[i], words, new PrintStream(original));
+         ChecksumStream search = new ChecksumStream();
+         new AnagramSearch(words, false).print(CHECK_PHRASES[i], CHECK_MAXES[i],
+            new PrintStream(search));
+         if (original.lines != search.lines
+               || original.checksum.getValue() != search.checksum.getValue()) {
+            throw new IllegalStateException("output differs for phrase: " + CHECK_PHRASES[i]);
+         }
+         checkCanonical(words, CHECK_PHRASES[i], CHECK_MAXES[i]);
+      }
+      Anagrams solver = new Anagrams(dictionary);
+      System.out.printf("%-24s %10s %12s %12s %12s %9s%n", "phrase", "anagrams",
+         "original ms", "search ms", "parallel ms", "speedup");
+      for (String phrase : phrases) {
+         SortedSet<String> possibleWords = solver.getWords(phrase);
+
+         ChecksumStream original = new ChecksumStream();
+         long start = System.nanoTime();
+         printOriginal(phrase, max, possibleWords, new PrintStream(original));
+         double originalMillis = (System.nanoTime() - start) / 1e6;
+
+         ChecksumStream search = new ChecksumStream();
+         start = System.nanoTime();
+         new AnagramSearch(possibleWords, false).print(phrase, max, new PrintStream(search));
+         double searchMillis = (System.nanoTime() - start) / 1e6;
+
+         ChecksumStream parallel = new ChecksumStream();
+         start = System.nanoTime();
+         List<List<String>> found = new AnagramSearch(possibleWords, false).findAll(phrase,
+            max, true, ForkJoinPool.commonPool());
+         double parallelMillis = (System.nanoTime() - start) / 1e6;
+         PrintStream parallelOutput = new PrintStream(parallel);
+         for (List<String> anagram : found) {
+            parallelOutput.println(anagram.toString());
+         }
+
+         if (original.lines != search.lines
+               || original.checksum.getValue() != search.checksum.getValue()
+               || parallel.lines != search.lines
+               || parallel.checksum.getValue() != search.checksum.getValue()) {
+            throw new IllegalStateException("output differs for phrase: " + phrase);
+         }
+         checkCanonical(possibleWords, phrase, max);
+         System.out.printf("%-24s %10d %12.1f %12.1f %12.1f %8.1fx%n", phrase, search.lines,
+            originalMillis, searchMillis, parallelMillis,
+            originalMillis / Math.min(searchMillis, parallelMillis));
+      }
+   }
+
+   // post: Checks that the canonical search, both by iterator and in parallel,
+   //       finds each group of words that the search in every order finds
+   //       exactly once, with its words in order (throws
+   //       IllegalStateException if not)
+   private static void checkCanonical(SortedSet<String> possibleWords, String phrase,
+         int max) {
+      Set<List<String>> expected = new HashSet<List<String>>();
+      Iterator<List<String>> every = new AnagramSearch(possibleWords, false).iterator(phrase,
+         max);
+      while (every.hasNext()) {
+         List<String> anagram = new ArrayList<String>(every.next());
+         Collections.sort(anagram);
+         expected.add(anagram);
+      }
+      AnagramSearch canonical = new AnagramSearch(possibleWords, true);
+      List<List<String>> iterated = new ArrayList<List<String>>();
+      Iterator<List<String>> anagrams = canonical.iterator(phrase, max);
+      while (anagrams.hasNext()) {
+         iterated.add(anagrams.next());
+      }
+      List<List<String>> parallel = canonical.findAll(phrase, max, true,
+         ForkJoinPool.commonPool());
+      if (iterated.size() != expected.size()
+            || !new HashSet<List<String>>(iterated).equals(expected)
+            || !iterated.equals(parallel)) {
+         throw new IllegalStateException("canonical output differs for phrase: " + phrase);
+      }
+   }
+
+   // post: Prints the anagrams of phrase the way Anagrams.print did before it
+   //       used AnagramSearch, retrying every possible word at every level
+   private static void printOriginal(String phrase, int max, SortedSet<String> possibleWords,
+         PrintStream output) {
+      int[] letters = new int[AnagramIndex.TOTAL_CHARACTERS];
+      AnagramIndex.countLetters(phrase, letters);
+      List<String> words = new ArrayList<String>();
+      List<int[]> wordCounts = new ArrayList<int[]>();
+      for (String word : possibleWords) {
+         int[] counts = new int[AnagramIndex.TOTAL_CHARACTERS];
+         if (AnagramIndex.countLetters(word, counts) != 0) {
+            words.add(word);
+            wordCounts.add(counts);
+         }
+      }
+      printOriginal(max, new ArrayList<String>(), words, wordCounts, letters, output);
+   }
+
+   // post: Prints all anagrams that start with the chosen words and use every
+   //       letter in letters
+   private static void printOriginal(int max, ArrayList<String> anagrams, List<String> words,
+         List<int[]> wordCounts, int[] letters, PrintStream output) {
+      boolean empty = true;
+      for (int count : letters) {
+         empty &= (count == 0);
+      }
+      if (empty && anagrams.size() <= max || empty && max == 0) {
+         output.println(anagrams.toString());
+      } else {
+         for (int i = 0; i < words.size(); i++) {
+            int[] counts = wordCounts.get(i);
+            boolean fits = true;
+            for (int j = 0; j < counts.length; j++) {
+               fits &= (counts[j] <= letters[j]);
+            }
+            if (fits) {
+               anagrams.add(words.get(i));
+               for (int j = 0; j < counts.length; j++) {
+                  letters[j] -= counts[j];
+               }
+               printOriginal(max, anagrams, words, wordCounts, letters, output);
+               for (int j = 0; j < counts.length; j++) {
+                  letters[j] += counts[j];
+               }
+               anagrams.remove(anagrams.size() - 1);
+            }
+         }
+      }
+   }
+
+   // This class discards everything written to it, keeping only a checksum
+   // and a count of the lines
+   private static class ChecksumStream extends OutputStream {
+      private CRC32 checksum = new CRC32();
+      private int lines;
+
+      public void write(int b) {
+         checksum.update(b);
+         if (b == '\n') {
+            lines++;
+         }
+      }
+   }
+}
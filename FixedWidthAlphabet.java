@@ -0,0 +1,58 @@
+// This program splits bytes into symbols of a fixed number of bytes each, so
+// that a HuffmanTree can code raw bytes or 16-bit symbols. The bytes of a
+// symbol are read most significant byte first.
+
+import java.io.*;
+
+public class FixedWidthAlphabet implements HuffmanAlphabet {
+   public static final FixedWidthAlphabet BYTES = new FixedWidthAlphabet(1);
+   public static final FixedWidthAlphabet SHORTS = new FixedWidthAlphabet(2);
+   public static final int MAX_WIDTH = 2; // wider symbols would not fit a decode table
+   private int width;
+
+   // width: Number of bytes in each symbol
+   // pre: 1 <= width <= MAX_WIDTH (throws IllegalArgumentException if not)
+   // post: constructs an alphabet of all symbols of width bytes
+   public FixedWidthAlphabet(int width) {
+      if (width < 1 || width > MAX_WIDTH) {
+         throw new IllegalArgumentException("width: " + width);
+      }
+      this.width = width;
+   }
+
+   // post: returns the number of bytes in each symbol
+   public int width() {
+      return width;
+   }
+
+   // post: returns 2 to the power of the number of bits in a symbol
+   public int size() {
+      return 1 << (8 * width);
+   }
+
+   // pre: input must not end in the middle of a symbol (throws EOFException
+   //      if it does)
+   // post: returns the next width bytes of input as a symbol, or -1 if input
+   //       has no more bytes
+   public int read(InputStream input) throws IOException {
+      int symbol = input.read();
+      if (symbol < 0) {
+         return -1;
+      }
+      for (int i = 1; i < width; i++) {
+         int b = input.read();
+         if (b < 0) {
+            throw new EOFException("input ends in the middle of a symbol");
+         }
+         symbol = (symbol << 8) | b;
+      }
+      return symbol;
+   }
+
+   // post: writes the width bytes of symbol
+   public void write(int symbol, OutputStream output) throws IOException {
+      for (int shift = 8 * (width - 1); shift >= 0; shift -= 8) {
+         output.write(symbol >>> shift);
+      }
+   }
+}
@@ -0,0 +1,426 @@
+// This program analyzes a grammar compiled by GrammarSolver, in which every
+// symbol has an integer id, the non-terminals coming first, and every
+// alternative of a non-terminal is an array of symbol ids. It finds the
+// symbols that can derive a string of terminals (the productive symbols), the
+// symbols reachable from the start symbol, the fewest levels of expansion
+// each symbol needs to finish, and the expected length of the string each
+// symbol generates when the alternatives that can finish are chosen in
+// proportion to their weights.
+//
+// Productive symbols and their depths are found in one pass, finishing
+// symbols in order of depth the way a breadth-first search would. Expected
+// lengths are solved exactly, one group of mutually recursive non-terminals
+// at a time, starting with the groups that use no others. An alternative may
+// be empty, so a symbol may generate no terminals at all; the chance of that
+// is found for each group by iterating to its fixed point, since a string of
+// n terminals has n - 1 spaces but an empty one has none.
+
+import java.util.*;
+
+public class GrammarAnalysis {
+   public static final int UNPRODUCTIVE = -1; // depth of a symbol that never finishes
+   private static final double EPSILON = 1e-9;
+   private static final int MAX_ROUNDS = 100000; // most rounds finding empty chances
+   private int[][][] alternatives;
+   private double[][] weights;
+   private String[] symbols;
+   private int[] minDepths; // fewest levels to finish each symbol
+   private int[][] ruleDepths; // fewest levels to finish each alternative
+   private boolean[] reachable;
+   private double[] tokens; // expected number of terminals of each symbol
+   private double[] characters; // expected characters of those terminals
+   private double[] empty; // chance that each symbol generates no terminals
+
+   // alternatives: Ids in each alternative of each non-terminal
+   // symbols: Symbol with each id, the non-terminals first
+   // start: Id of the start symbol
+   // pre: alternatives and symbols must exist and start must be the id of a
+   //      non-terminal (throws IllegalArgumentException if not)
+   // post: analyzes the grammar, with every alternative weighing the same
+   public GrammarAnalysis(int[][][] alternatives, String[] symbols, int start) {
+      this(alternatives, null, symbols, start);
+   }
+
+   // alternatives: Ids in each alternative of each non-terminal
+   // weights: Positive weight of each alternative, or null for equal weights
+   // symbols: Symbol with each id, the non-terminals first
+   // start: Id of the start symbol
+   // pre: alternatives and symbols must exist and start must be the id of a
+   //      non-terminal (throws IllegalArgumentException if not)
+   // post: analyzes the grammar
+   public GrammarAnalysis(int[][][] alternatives, double[][] weights, String[] symbols,
+         int start) {
+      if (alternatives == null || symbols == null || start < 0
+            || start >= alternatives.length) {
+         throw new IllegalArgumentException("alternatives and symbols must exist and "
+            + "start must be a non-terminal");
+      }
+      this.alternatives = alternatives;
+      this.weights = weights;
+      this.symbols = symbols;
+      findDepths();
+      findReachable(start);
+      findExpectedLengths();
+   }
+
+   // post: returns true if symbol can derive a string of terminals
+   public boolean isProductive(int symbol) {
+      return minDepths[symbol] != UNPRODUCTIVE;
+   }
+
+   // post: returns true if symbol appears in some derivation of the start
+   //       symbol
+   public boolean isReachable(int symbol) {
+      return reachable[symbol];
+   }
+
+   // post: returns the fewest levels of expansion symbol needs to derive a
+   //       string of terminals, which is 0 for a terminal, or UNPRODUCTIVE if
+   //       it never can
+   public int minDepth(int symbol) {
+      return minDepths[symbol];
+   }
+
+   // nonTerminal: Id of a non-terminal
+   // alternative: Index of one of its alternatives
+   // post: returns the fewest levels of expansion the non-terminal needs when
+   //       it is expanded by the alternative, or UNPRODUCTIVE if that never
+   //       finishes
+   public int ruleDepth(int nonTerminal, int alternative) {
+      return ruleDepths[nonTerminal][alternative];
+   }
+
+   // post: returns the expected number of characters symbol generates,
+   //       counting one space between terminals, when the productive
+   //       alternatives of a non-terminal are chosen in proportion to their
+   //       weights; returns
+   //       Double.POSITIVE_INFINITY if symbol is unproductive or the expected
+   //       length is unbounded
+   public double expectedLength(int symbol) {
+      return characters[symbol] + tokens[symbol] - 1 + empty[symbol];
+   }
+
+   // post: finds the depth of every symbol and alternative. Each alternative
+   //       waits for its symbols to finish; a symbol finishes, one level
+   //       deeper, with the first of its alternatives whose symbols have all
+   //       finished, so symbols finish in order of depth. Terminals finish at
+   //       depth 0 and empty alternatives, which wait for nothing, at depth 1.
+   private void findDepths() {
+      int[][] remaining = new int[alternatives.length][];
+      int[] uses = new int[symbols.length + 1];
+      ruleDepths = new int[alternatives.length][];
+      for (int[][] rules : alternatives) {
+         for (int[] rule : rules) {
+            for (int symbol : rule) {
+               uses[symbol + 1]++;
+            }
+         }
+      }
+      for (int i = 1; i <= symbols.length; i++) {
+         uses[i] += uses[i - 1];
+      }
+      long[] users = new long[uses[symbols.length]]; // each alternative using each symbol
+      int[] next = Arrays.copyOf(uses, symbols.length);
+      for (int x = 0; x < alternatives.length; x++) {
+         remaining[x] = new int[alternatives[x].length];
+         ruleDepths[x] = new int[alternatives[x].length];
+         Arrays.fill(ruleDepths[x], UNPRODUCTIVE);
+         for (int i = 0; i < alternatives[x].length; i++) {
+            remaining[x][i] = alternatives[x][i].length;
+            for (int symbol : alternatives[x][i]) {
+               users[next[symbol]++] = ((long) x << 32) | i;
+            }
+         }
+      }
+      minDepths = new int[symbols.length];
+      int[] queue = new int[symbols.length];
+      int tail = 0;
+      for (int symbol = 0; symbol < symbols.length; symbol++) {
+         if (symbol < alternatives.length) {
+            minDepths[symbol] = UNPRODUCTIVE;
+         } else {
+            queue[tail++] = symbol;
+         }
+      }
+      for (int x = 0; x < alternatives.length; x++) {
+         for (int i = 0; i < alternatives[x].length; i++) {
+            if (alternatives[x][i].length == 0) {
+               ruleDepths[x][i] = 1;
+               if (minDepths[x] == UNPRODUCTIVE) {
+                  minDepths[x] = 1;
+                  queue[tail++] = x;
+               }
+            }
+         }
+      }
+      for (int head = 0; head < tail; head++) {
+         int symbol = queue[head];
+         for (int u = uses[symbol]; u < uses[symbol + 1]; u++) {
+            int x = (int) (users[u] >>> 32);
+            int i = (int) users[u];
+            if (--remaining[x][i] == 0) {
+               ruleDepths[x][i] = minDepths[symbol] + 1;
+               if (minDepths[x] == UNPRODUCTIVE) {
+                  minDepths[x] = ruleDepths[x][i];
+                  queue[tail++] = x;
+               }
+            }
+         }
+      }
+   }
+
+   // post: marks every symbol that appears in some alternative reachable
+   //       from start
+   private void findReachable(int start) {
+      reachable = new boolean[symbols.length];
+      int[] queue = new int[alternatives.length];
+      int tail = 0;
+      reachable[start] = true;
+      queue[tail++] = start;
+      for (int head = 0; head < tail; head++) {
+         for (int[] rule : alternatives[queue[head]]) {
+            for (int symbol : rule) {
+               if (!reachable[symbol]) {
+                  reachable[symbol] = true;
+                  if (symbol < alternatives.length) {
+                     queue[tail++] = symbol;
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   // post: finds the expected terminals and characters of every symbol,
+   //       solving each group of mutually recursive non-terminals after the
+   //       groups it uses. The groups are found by Tarjan's algorithm, run
+   //       with an explicit stack so that long chains of rules do not
+   //       overflow the thread stack.
+   private void findExpectedLengths() {
+      int count = alternatives.length;
+      tokens = new double[symbols.length];
+      characters = new double[symbols.length];
+      empty = new double[symbols.length];
+      for (int symbol = count; symbol < symbols.length; symbol++) {
+         tokens[symbol] = 1;
+         characters[symbol] = symbols[symbol].length();
+      }
+      int[][] successors = new int[count][];
+      for (int x = 0; x < count; x++) {
+         List<Integer> used = new ArrayList<Integer>();
+         for (int i = 0; i < alternatives[x].length; i++) {
+            if (ruleDepths[x][i] != UNPRODUCTIVE) {
+               for (int symbol : alternatives[x][i]) {
+                  if (symbol < count) {
+                     used.add(symbol);
+                  }
+               }
+            }
+         }
+         successors[x] = new int[used.size()];
+         for (int i = 0; i < used.size(); i++) {
+            successors[x][i] = used.get(i);
+         }
+      }
+      int[] index = new int[count];
+      int[] low = new int[count];
+      int[] nextEdge = new int[count];
+      int[] rows = new int[count]; // row of each non-terminal in its group
+      boolean[] onStack = new boolean[count];
+      int[] stack = new int[count];
+      int[] calls = new int[count];
+      Arrays.fill(index, -1);
+      Arrays.fill(rows, -1);
+      int visited = 0;
+      int stackSize = 0;
+      for (int root = 0; root < count; root++) {
+         if (index[root] >= 0) {
+            continue;
+         }
+         int depth = 0;
+         index[root] = low[root] = visited++;
+         stack[stackSize++] = root;
+         onStack[root] = true;
+         calls[depth++] = root;
+         while (depth > 0) {
+            int x = calls[depth - 1];
+            if (nextEdge[x] < successors[x].length) {
+               int y = successors[x][nextEdge[x]++];
+               if (index[y] < 0) {
+                  index[y] = low[y] = visited++;
+                  stack[stackSize++] = y;
+                  onStack[y] = true;
+                  calls[depth++] = y;
+               } else if (onStack[y]) {
+                  low[x] = Math.min(low[x], index[y]);
+               }
+            } else {
+               depth--;
+               if (depth > 0) {
+                  int caller = calls[depth - 1];
+                  low[caller] = Math.min(low[caller], low[x]);
+               }
+               if (low[x] == index[x]) {
+                  int start = stackSize;
+                  do {
+                     start--;
+                     onStack[stack[start]] = false;
+                  } while (stack[start] != x);
+                  solve(stack, start, stackSize, rows);
+                  stackSize = start;
+               }
+            }
+         }
+      }
+   }
+
+   // group: Holds a group of mutually recursive non-terminals from start to
+   //        end, whose successors outside the group are already solved
+   // rows: Row of each non-terminal in its group, -1 outside of the group
+   // post: solves the expected terminals and characters of the group, which
+   //       satisfy, for each non-terminal, expected = weighted average over
+   //       its productive alternatives of the sum of the expected values of
+   //       their symbols. The expected expansions of the group are solved the
+   //       same way, counting one for each non-terminal. Marks the whole
+   //       group unbounded if it is unproductive, if it uses an unbounded
+   //       symbol, or if the expansions have no solution of at least one
+   //       each, which happens when each expansion produces on average at
+   //       least one more expansion of the group. Otherwise also finds the
+   //       chance that each non-terminal of the group generates no terminals.
+   private void solve(int[] group, int start, int end, int[] rows) {
+      int size = end - start;
+      for (int r = 0; r < size; r++) {
+         rows[group[start + r]] = r;
+      }
+      double[][] equations = new double[size][size + 3];
+      boolean bounded = true;
+      for (int r = 0; r < size && bounded; r++) {
+         int x = group[start + r];
+         double total = 0;
+         for (int i = 0; i < alternatives[x].length; i++) {
+            if (ruleDepths[x][i] != UNPRODUCTIVE) {
+               total += weight(x, i);
+            }
+         }
+         bounded = total > 0;
+         equations[r][r] = 1;
+         for (int i = 0; i < alternatives[x].length; i++) {
+            if (ruleDepths[x][i] != UNPRODUCTIVE) {
+               double weight = weight(x, i);
+               for (int symbol : alternatives[x][i]) {
+                  if (symbol < alternatives.length && rows[symbol] >= 0) {
+                     equations[r][rows[symbol]] -= weight / total;
+                  } else {
+                     equations[r][size] += weight * tokens[symbol] / total;
+                     equations[r][size + 1] += weight * characters[symbol] / total;
+                  }
+               }
+            }
+         }
+         equations[r][size + 2] = 1;
+         bounded = bounded && !Double.isInfinite(equations[r][size]);
+      }
+      double[][] solution = bounded ? eliminate(equations) : null;
+      for (int r = 0; r < size && solution != null; r++) {
+         if (solution[r][2] < 1 - EPSILON) {
+            solution = null;
+         }
+      }
+      for (int r = 0; r < size; r++) {
+         int x = group[start + r];
+         if (solution == null) {
+            tokens[x] = characters[x] = Double.POSITIVE_INFINITY;
+         } else {
+            tokens[x] = Math.max(solution[r][0], 0);
+            characters[x] = Math.max(solution[r][1], 0);
+         }
+      }
+      if (solution != null) {
+         findEmpty(group, start, end);
+      }
+      for (int r = 0; r < size; r++) {
+         rows[group[start + r]] = -1;
+      }
+   }
+
+   // group: Holds a bounded group of mutually recursive non-terminals from
+   //        start to end, whose successors outside the group are already
+   //        solved
+   // post: finds the chance that each non-terminal of the group generates no
+   //       terminals, which is the weighted average over its productive
+   //       alternatives of the product of the chances of their symbols.
+   //       Starting from 0 and applying the equations over and over rises to
+   //       their least solution, which is the chance wanted; as the group is
+   //       bounded, the error shrinks geometrically.
+   private void findEmpty(int[] group, int start, int end) {
+      double change = 1;
+      for (int round = 0; round < MAX_ROUNDS && change > EPSILON * EPSILON; round++) {
+         change = 0;
+         for (int r = start; r < end; r++) {
+            int x = group[r];
+            double total = 0;
+            double sum = 0;
+            for (int i = 0; i < alternatives[x].length; i++) {
+               if (ruleDepths[x][i] != UNPRODUCTIVE) {
+                  double product = weight(x, i);
+                  for (int symbol : alternatives[x][i]) {
+                     product *= empty[symbol];
+                  }
+                  total += weight(x, i);
+                  sum += product;
+               }
+            }
+            change = Math.max(change, Math.abs(sum / total - empty[x]));
+            empty[x] = sum / total;
+         }
+      }
+   }
+
+   // post: returns the weight of alternative i of non-terminal x
+   private double weight(int x, int i) {
+      return (weights == null) ? 1 : weights[x][i];
+   }
+
+   // equations: Rows of coefficients of a square system followed by its
+   //            right-hand sides
+   // post: solves the system by Gaussian elimination with partial pivoting
+   //       and returns the solutions of each unknown, one for each right-hand
+   //       side, or null if the system is singular
+   private static double[][] eliminate(double[][] equations) {
+      int size = equations.length;
+      int sides = equations[0].length - size;
+      for (int column = 0; column < size; column++) {
+         int pivot = column;
+         for (int r = column + 1; r < size; r++) {
+            if (Math.abs(equations[r][column]) > Math.abs(equations[pivot][column])) {
+               pivot = r;
+            }
+         }
+         if (Math.abs(equations[pivot][column]) < EPSILON) {
+            return null;
+         }
+         double[] swap = equations[column];
+         equations[column] = equations[pivot];
+         equations[pivot] = swap;
+         for (int r = column + 1; r < size; r++) {
+            double factor = equations[r][column] / equations[column][column];
+            if (factor != 0) {
+               for (int c = column; c < size + sides; c++) {
+                  equations[r][c] -= factor * equations[column][c];
+               }
+            }
+         }
+      }
+      double[][] solution = new double[size][sides];
+      for (int r = size - 1; r >= 0; r--) {
+         for (int side = 0; side < sides; side++) {
+            double value = equations[r][size + side];
+            for (int c = r + 1; c < size; c++) {
+               value -= equations[r][c] * solution[c][side];
+            }
+            solution[r][side] = value / equations[r][r];
+         }
+      }
+      return solution;
+   }
+}
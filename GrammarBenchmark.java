@@ -0,0 +1,90 @@
+// This program measures how many occurrences of a symbol GrammarSolver can
+// generate per second: one at a time with generate, in bulk into a sink, and
+// as a parallel stream on every core. It checks that the sink and the
+// parallel stream produce exactly the same occurrences for the same seed.
+//
+// usage: java GrammarBenchmark <grammar file> [symbol] [count] [seed] [weighted]
+
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+import java.util.zip.*;
+
+public class GrammarBenchmark {
+   public static final String DEFAULT_SYMBOL = "<s>";
+   public static final long DEFAULT_COUNT = 5000000;
+
+   public static void main(String[] args) throws FileNotFoundException {
+      if (args.length < 1) {
+         System.out.println("usage: java GrammarBenchmark <grammar file> [symbol] [count] "
+            + "[seed] [weighted]");
+         return;
+      }
+      List<String> rules = new ArrayList<String>();
+      Scanner input = new Scanner(new File(args[0]));
+      while (input.hasNextLine()) {
+         String line = input.nextLine();
+         if (line.trim().length() > 0) {
+            rules.add(line);
+         }
+      }
+      String symbol = (args.length > 1) ? args[1] : DEFAULT_SYMBOL;
+      long count = (args.length > 2) ? Long.parseLong(args[2]) : DEFAULT_COUNT;
+      long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+      boolean weighted = (args.length > 4) && Boolean.parseBoolean(args[4]);
+      GrammarSolver solver = new GrammarSolver(rules, seed, weighted);
+
+      long start = System.nanoTime();
+      long characters = 0;
+      for (long i = 0; i < count; i++) {
+         characters += solver.generate(symbol).length();
+      }
+      report("generate", count, characters, System.nanoTime() - start);
+
+      final CRC32 sinkChecksum = new CRC32();
+      final long[] sinkCharacters = new long[1];
+      start = System.nanoTime();
+      solver.generate(symbol, count, seed, new Consumer<StringBuilder>() {
+         public void accept(StringBuilder occurrence) {
+            for (int i = 0; i < occurrence.length(); i++) {
+               sinkChecksum.update(occurrence.charAt(i));
+            }
+            sinkChecksum.update('\n');
+            sinkCharacters[0] += occurrence.length();
+         }
+      });
+      report("sink", count, sinkCharacters[0], System.nanoTime() - start);
+
+      start = System.nanoTime();
+      List<String> occurrences = new ArrayList<String>();
+      solver.generate(symbol, count, seed).parallel().forEachOrdered(
+         new Consumer<String>() {
+            public void accept(String occurrence) {
+               occurrences.add(occurrence);
+            }
+         });
+      long parallelTime = System.nanoTime() - start;
+      CRC32 parallelChecksum = new CRC32();
+      long parallelCharacters = 0;
+      for (String occurrence : occurrences) {
+         for (int i = 0; i < occurrence.length(); i++) {
+            parallelChecksum.update(occurrence.charAt(i));
+         }
+         parallelChecksum.update('\n');
+         parallelCharacters += occurrence.length();
+      }
+      report("parallel", count, parallelCharacters, parallelTime);
+      if (parallelChecksum.getValue() != sinkChecksum.getValue()
+            || parallelCharacters != sinkCharacters[0]) {
+         throw new IllegalStateException("parallel stream differs from sink");
+      }
+   }
+
+   // post: prints the number of occurrences and characters generated per
+   //       second in the given number of nanoseconds
+   private static void report(String name, long count, long characters, long nanos) {
+      double seconds = nanos / 1e9;
+      System.out.printf("%-10s %10.2f M occurrences/s %10.1f MB/s%n", name,
+         count / seconds / 1e6, characters / seconds / 1e6);
+   }
+}
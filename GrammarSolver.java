@@ -1,10 +1,62 @@
 // This program reads an input file containing a grammar in Backus-Naur Form.
 // It allows the user to randomly generate elements of the grammar.
+//
+// The rules are compiled once when the solver is built: every symbol is given
+// an integer id, with the non-terminals numbered first in sorted order, and
+// every alternative of a non-terminal is split into an array of symbol ids.
+// Generation then walks the chosen alternatives with an explicit stack,
+// appending terminals to a single StringBuilder, so it neither splits strings
+// nor recurses however deep the grammar goes.
+//
+// Nothing in a solver changes after it is built except a count of the calls
+// of generate. Each call numbers itself from that count, draws its choices
+// from its own SplittableRandom seeded from the number and expands with its
+// own stack, so one solver can be shared by many threads.
+//
+// Many occurrences can be generated at once as a stream or into a sink. The
+// occurrences are numbered and drawn in chunks of CHUNK_SIZE, and each chunk
+// has its own SplittableRandom seeded from the chunk's number, so a stream
+// can be split among threads without sharing any state and still produces
+// the same occurrences in the same order for the same seed.
+//
+// The compiled grammar is analyzed by GrammarAnalysis. Alternatives that can
+// never finish are left out of generation, and generating a symbol that can
+// never finish is refused up front. Generation can also be bounded in depth,
+// choosing only alternatives that can finish within the levels left.
+//
+// A solver built as weighted lets an alternative end with a weight, as in
+// <noun>::=dog:5|cat:1, to be chosen in proportion to it. Weights are off
+// unless asked for, so in a plain grammar a terminal such as 12:30 is just a
+// terminal. The weighted choices of each non-terminal are made in constant
+// time from an alias table built by Vose's method when the grammar is
+// compiled. Non-terminals whose alternatives all weigh the same choose
+// uniformly, exactly as plain BNF always has.
 
 import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+import java.util.regex.*;
+import java.util.stream.*;
 
 public class GrammarSolver {
-   private Map<String, String[]> grammarRules;
+   public static final int CHUNK_SIZE = 1024; // occurrences drawn from one random stream
+   private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+   private static final Pattern WEIGHT = Pattern.compile("(.*\\S):([0-9]+(\\.[0-9]+)?)");
+   private SortedSet<String> nonTerminals;
+   private Map<String, Integer> symbolIds; // id of every symbol in the rules
+   private String[] symbols; // symbol with each id
+   private int[][][] alternatives; // ids in each alternative of each non-terminal
+   private double[][] weights; // weight of each alternative of each non-terminal
+   private boolean weighted; // whether alternatives may end with a weight
+   private GrammarAnalysis analysis;
+   private int[][][] choices; // alternatives of each non-terminal that can finish
+   private int[][] depths; // depth of each choice, in increasing order
+   private int[][] depthOrder; // choice with each of those depths
+   private double[][] probabilities; // alias table of each weighted non-terminal
+   private int[][] aliases; // null for non-terminals that choose uniformly
+   private double[][] depthWeights; // total weight of the choices up to each depth
+   private long callSeed; // seed of the choices of the calls of generate
+   private AtomicLong calls = new AtomicLong(); // number of the next call
    
    // rules: Given collection of grammar rules in BNF format
    // pre: rules must exist and contain at least one value
@@ -12,21 +64,73 @@ public class GrammarSolver {
    //      Each non-terminal value can only occur once in the grammar rules
    //      (throws IllegalArgumentException if not)
    // post: A new grammar solver is created with all grammar rules corresponding
-   //       to their given non-terminal
+   //       to their given non-terminal, without weights
    public GrammarSolver(List<String> rules) {
+      this(rules, false);
+   }
+   
+   // rules: Given collection of grammar rules in BNF format
+   // weighted: Whether an alternative may end with a weight, as in dog:5
+   // pre: rules must exist and contain at least one value
+   //      (throws IllegalArgumentException if not)
+   //      Each non-terminal value can only occur once in the grammar rules
+   //      (throws IllegalArgumentException if not)
+   //      If weighted, each non-terminal must have an alternative of positive
+   //      weight (throws IllegalArgumentException if not)
+   // post: A new grammar solver is created with all grammar rules corresponding
+   //       to their given non-terminal
+   public GrammarSolver(List<String> rules, boolean weighted) {
+      this(rules, new SplittableRandom().nextLong(), weighted);
+   }
+   
+   // rules: Given collection of grammar rules in BNF format
+   // seed: Seed of the choices made by generate
+   // pre: rules must exist and contain at least one value
+   //      (throws IllegalArgumentException if not)
+   //      Each non-terminal value can only occur once in the grammar rules
+   //      (throws IllegalArgumentException if not)
+   // post: A new grammar solver is created without weights whose calls of
+   //       generate produce the same occurrences in the same order every time
+   //       the program is run, as long as they are made by one thread
+   public GrammarSolver(List<String> rules, long seed) {
+      this(rules, seed, false);
+   }
+   
+   // rules: Given collection of grammar rules in BNF format
+   // seed: Seed of the choices made by generate
+   // weighted: Whether an alternative may end with a weight, as in dog:5
+   // pre: rules must exist and contain at least one value
+   //      (throws IllegalArgumentException if not)
+   //      Each non-terminal value can only occur once in the grammar rules
+   //      (throws IllegalArgumentException if not)
+   //      If weighted, each non-terminal must have an alternative of positive
+   //      weight (throws IllegalArgumentException if not)
+   // post: A new grammar solver is created whose calls of generate produce
+   //       the same occurrences in the same order every time the program is
+   //       run, as long as they are made by one thread
+   public GrammarSolver(List<String> rules, long seed, boolean weighted) {
       if (rules == null || rules.size() < 1) {
          throw new IllegalArgumentException("rules must contain at least one value");
       }
-      grammarRules = new TreeMap<String, String[]>();
+      Map<String, String[]> grammarRules = new TreeMap<String, String[]>();
+      String start = null;
       for (String s : rules) {
          String[] parts = s.split("::=");
          String nonTerminal = parts[0];
+         if (start == null) {
+            start = nonTerminal;
+         }
          if (grammarRules.containsKey(nonTerminal)) {
             throw new IllegalArgumentException("no duplicate non-terminals allowed");
          }
          String[] parts2 = parts[1].split("[|]");
          grammarRules.put(nonTerminal, parts2);
       }
+      this.weighted = weighted;
+      compile(grammarRules);
+      analysis = new GrammarAnalysis(alternatives, weights, symbols, symbolIds.get(start));
+      findChoices();
+      callSeed = new SplittableRandom(seed).nextLong();
    }
    
    // symbol: Given grammar symbol
@@ -38,15 +142,59 @@ public class GrammarSolver {
       if (symbol == null || symbol.length() < 1) {
          throw new IllegalArgumentException("symbol must have a length greater than zero");
       }
-      if (grammarRules.containsKey(symbol)) {
-         return true;
-      }
-      return false;  
+      Integer id = symbolIds.get(symbol);
+      return id != null && id < alternatives.length;
    }
    
    // post: Returns the sorted non-terminals of the grammar
    public Set<String> getSymbols() {
-      return grammarRules.keySet();
+      return nonTerminals;
+   }
+   
+   // symbol: Given grammar symbol
+   // pre: symbol must exist and have a length greater than zero
+   //      (throws IllegalArgumentException if not)
+   // post: Returns true if symbol can generate a string of terminals, as
+   //       every terminal can
+   public boolean isProductive(String symbol) {
+      int id = symbolId(symbol);
+      return id < 0 || analysis.isProductive(id);
+   }
+   
+   // symbol: Given grammar symbol
+   // pre: symbol must exist and have a length greater than zero
+   //      (throws IllegalArgumentException if not)
+   // post: Returns true if symbol is the non-terminal of the first rule or
+   //       can appear in one of its expansions
+   public boolean isReachable(String symbol) {
+      if (symbol == null || symbol.length() < 1) {
+         throw new IllegalArgumentException("symbol must have a length greater than zero");
+      }
+      Integer id = symbolIds.get(symbol);
+      return id != null && analysis.isReachable(id);
+   }
+   
+   // symbol: Given grammar symbol
+   // pre: symbol must exist and have a length greater than zero
+   //      (throws IllegalArgumentException if not)
+   // post: Returns the fewest levels of expansion symbol needs to generate a
+   //       string of terminals, which is 0 for a terminal, or
+   //       GrammarAnalysis.UNPRODUCTIVE if it never can
+   public int getMinDepth(String symbol) {
+      int id = symbolId(symbol);
+      return (id < 0) ? 0 : analysis.minDepth(id);
+   }
+   
+   // symbol: Given grammar symbol
+   // pre: symbol must exist and have a length greater than zero
+   //      (throws IllegalArgumentException if not)
+   // post: Returns the expected length of the strings generate returns for
+   //       symbol, with alternatives chosen in proportion to their weights,
+   //       or Double.POSITIVE_INFINITY if it is unbounded or symbol is not
+   //       productive
+   public double getExpectedLength(String symbol) {
+      int id = symbolId(symbol);
+      return (id < 0) ? symbol.length() : analysis.expectedLength(id);
    }
    
    // symbol: Given grammar symbol
@@ -55,22 +203,483 @@ public class GrammarSolver {
    // post: Generates a random occurence of the given symbol according to the
    //       grammar rules
    public String generate(String symbol) {
+      StringBuilder result = new StringBuilder();
+      generate(symbol, result);
+      return result.toString();
+   }
+   
+   // symbol: Given grammar symbol
+   // maxDepth: Most levels of expansion wanted
+   // pre: symbol must exist, have a length greater than zero and be
+   //      productive, and maxDepth must be positive
+   //      (throws IllegalArgumentException if not)
+   // post: Generates a random occurence of the given symbol that uses at most
+   //       maxDepth levels of expansion, choosing at each level among the
+   //       alternatives that can finish in the levels left, in proportion to
+   //       their weights. If symbol needs more than maxDepth levels, the
+   //       shallowest occurrences are chosen.
+   public String generate(String symbol, int maxDepth) {
+      if (maxDepth < 1) {
+         throw new IllegalArgumentException("maxDepth must be positive");
+      }
+      int id = nonTerminal(symbol);
+      if (id < 0) {
+         return symbol;
+      }
+      StringBuilder result = new StringBuilder();
+      new Generator().generate(id, maxDepth, nextRandom(), result);
+      return result.toString();
+   }
+   
+   // symbol: Given grammar symbol
+   // output: Builder to which the occurrence is appended
+   // pre: symbol and output must exist and symbol must have a length greater
+   //      than zero (throws IllegalArgumentException if not)
+   // post: Appends a random occurence of the given symbol according to the
+   //       grammar rules to output, with its terminals separated by single
+   //       spaces
+   public void generate(String symbol, StringBuilder output) {
+      if (output == null) {
+         throw new IllegalArgumentException("output must exist");
+      }
+      int id = nonTerminal(symbol);
+      if (id < 0) {
+         output.append(symbol);
+      } else {
+         new Generator().generate(id, 0, nextRandom(), output);
+      }
+   }
+   
+   // symbol: Given grammar symbol
+   // count: Number of occurrences to generate
+   // seed: Seed of the choices
+   // pre: symbol must exist and have a length greater than zero and count
+   //      must be nonnegative (throws IllegalArgumentException if not)
+   // post: Returns a stream of count random occurences of the given symbol.
+   //       The same seed gives the same occurrences in the same order,
+   //       whether the stream is run sequentially or in parallel.
+   public Stream<String> generate(String symbol, long count, long seed) {
+      if (count < 0) {
+         throw new IllegalArgumentException("count must be nonnegative");
+      }
+      int id = nonTerminal(symbol);
+      if (id < 0) {
+         return LongStream.range(0, count).mapToObj(new LongFunction<String>() {
+            public String apply(long i) {
+               return symbol;
+            }
+         });
+      }
+      return StreamSupport.stream(new Occurrences(id, seed, 0, count), false);
+   }
+   
+   // symbol: Given grammar symbol
+   // count: Number of occurrences to generate
+   // random: Source of the seed of the choices
+   // pre: symbol and random must exist, symbol must have a length greater
+   //      than zero and count must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: Returns a stream of count random occurences of the given symbol,
+   //       seeded by the next number from random
+   public Stream<String> generate(String symbol, long count, SplittableRandom random) {
+      if (random == null) {
+         throw new IllegalArgumentException("random must exist");
+      }
+      return generate(symbol, count, random.nextLong());
+   }
+   
+   // symbol: Given grammar symbol
+   // count: Number of occurrences to generate
+   // seed: Seed of the choices
+   // sink: Receives each occurrence in turn
+   // pre: symbol and sink must exist, symbol must have a length greater than
+   //      zero and count must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: Passes count random occurences of the given symbol to sink, the
+   //       same ones that generate(symbol, count, seed) streams. Every
+   //       occurrence is passed in the same builder, which is only valid until
+   //       sink returns, so no strings are made unless sink makes them.
+   public void generate(String symbol, long count, long seed,
+         Consumer<? super StringBuilder> sink) {
+      if (count < 0 || sink == null) {
+         throw new IllegalArgumentException("sink must exist and count must be "
+            + "nonnegative");
+      }
+      int id = nonTerminal(symbol);
+      StringBuilder output = new StringBuilder();
+      Generator generator = new Generator();
+      SplittableRandom random = null;
+      for (long i = 0; i < count; i++) {
+         output.setLength(0);
+         if (id < 0) {
+            output.append(symbol);
+         } else {
+            if (i % CHUNK_SIZE == 0) {
+               random = chunkRandom(seed, i / CHUNK_SIZE);
+            }
+            generator.generate(id, 0, random, output);
+         }
+         sink.accept(output);
+      }
+   }
+   
+   // pre: symbol must exist and have a length greater than zero
+   //      (throws IllegalArgumentException if not)
+   // post: Returns the id of symbol if it is a non-terminal, or -1 if not
+   private int symbolId(String symbol) {
       if (symbol == null || symbol.length() < 1) {
          throw new IllegalArgumentException("symbol must have a length greater than zero");
       }
-      if (!grammarRules.containsKey(symbol)) {
-         return symbol;
+      Integer id = symbolIds.get(symbol);
+      return (id == null || id >= alternatives.length) ? -1 : id;
+   }
+   
+   // pre: symbol must exist, have a length greater than zero and be
+   //      productive (throws IllegalArgumentException if not)
+   // post: Returns the id of symbol if it is a non-terminal, or -1 if not
+   private int nonTerminal(String symbol) {
+      int id = symbolId(symbol);
+      if (id >= 0 && !analysis.isProductive(id)) {
+         throw new IllegalArgumentException(symbol + " can never generate a string of "
+            + "terminals");
+      }
+      return id;
+   }
+   
+   // post: Returns the random numbers of the next call of generate
+   private SplittableRandom nextRandom() {
+      return chunkRandom(callSeed, calls.getAndIncrement());
+   }
+   
+   // post: Returns the random numbers of the given chunk of occurrences,
+   //       seeded with the number that a SplittableRandom made from seed
+   //       would return (chunk + 1)th
+   private static SplittableRandom chunkRandom(long seed, long chunk) {
+      long z = seed + (chunk + 1) * GOLDEN_GAMMA;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return new SplittableRandom(z ^ (z >>> 31));
+   }
+   
+   // grammarRules: Alternatives of each non-terminal, in sorted order
+   // pre: each non-terminal must have an alternative of positive weight
+   //      (throws IllegalArgumentException if not)
+   // post: Gives every symbol an id, numbering the non-terminals first, and
+   //       splits every alternative into the ids of its symbols and its
+   //       weight, which is 1 if it has none or the solver is not weighted.
+   //       Alternatives of weight 0 are left out, as they are never chosen.
+   private void compile(Map<String, String[]> grammarRules) {
+      nonTerminals = Collections.unmodifiableSortedSet(
+         new TreeSet<String>(grammarRules.keySet()));
+      symbolIds = new HashMap<String, Integer>();
+      List<String> names = new ArrayList<String>(grammarRules.keySet());
+      for (String nonTerminal : names) {
+         symbolIds.put(nonTerminal, symbolIds.size());
+      }
+      alternatives = new int[names.size()][][];
+      weights = new double[names.size()][];
+      for (String nonTerminal : grammarRules.keySet()) {
+         List<int[]> compiled = new ArrayList<int[]>();
+         List<Double> ruleWeights = new ArrayList<Double>();
+         for (String alternative : grammarRules.get(nonTerminal)) {
+            String rule = alternative.trim();
+            double weight = 1;
+            Matcher suffix = WEIGHT.matcher(rule);
+            if (weighted && suffix.matches()) {
+               rule = suffix.group(1).trim();
+               weight = Double.parseDouble(suffix.group(2));
+            }
+            if (weight == 0) {
+               continue;
+            }
+            String[] tokens = (rule.length() == 0) ? new String[0] : rule.split("[ \t]+");
+            int[] ids = new int[tokens.length];
+            for (int j = 0; j < tokens.length; j++) {
+               Integer id = symbolIds.get(tokens[j]);
+               if (id == null) {
+                  id = names.size();
+                  symbolIds.put(tokens[j], id);
+                  names.add(tokens[j]);
+               }
+               ids[j] = id;
+            }
+            compiled.add(ids);
+            ruleWeights.add(weight);
+         }
+         if (compiled.isEmpty()) {
+            throw new IllegalArgumentException(nonTerminal + " has no alternative of "
+               + "positive weight");
+         }
+         int x = symbolIds.get(nonTerminal);
+         alternatives[x] = compiled.toArray(new int[compiled.size()][]);
+         weights[x] = new double[ruleWeights.size()];
+         for (int i = 0; i < weights[x].length; i++) {
+            weights[x][i] = ruleWeights.get(i);
+         }
+      }
+      symbols = names.toArray(new String[names.size()]);
+   }
+   
+   // post: Keeps for generation the alternatives of each non-terminal that
+   //       can finish, and orders them by depth for bounded generation
+   private void findChoices() {
+      choices = new int[alternatives.length][][];
+      depths = new int[alternatives.length][];
+      depthOrder = new int[alternatives.length][];
+      probabilities = new double[alternatives.length][];
+      aliases = new int[alternatives.length][];
+      depthWeights = new double[alternatives.length][];
+      for (int x = 0; x < alternatives.length; x++) {
+         List<int[]> productive = new ArrayList<int[]>();
+         List<Integer> ruleDepths = new ArrayList<Integer>();
+         List<Double> ruleWeights = new ArrayList<Double>();
+         for (int i = 0; i < alternatives[x].length; i++) {
+            if (analysis.ruleDepth(x, i) != GrammarAnalysis.UNPRODUCTIVE) {
+               productive.add(alternatives[x][i]);
+               ruleDepths.add(analysis.ruleDepth(x, i));
+               ruleWeights.add(weights[x][i]);
+            }
+         }
+         Integer[] order = new Integer[productive.size()];
+         for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+         }
+         Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+               return Integer.compare(ruleDepths.get(a), ruleDepths.get(b));
+            }
+         });
+         choices[x] = productive.toArray(new int[productive.size()][]);
+         depths[x] = new int[order.length];
+         depthOrder[x] = new int[order.length];
+         for (int i = 0; i < order.length; i++) {
+            depthOrder[x][i] = order[i];
+            depths[x][i] = ruleDepths.get(order[i]);
+         }
+         if (new HashSet<Double>(ruleWeights).size() > 1) {
+            buildAliasTable(x, ruleWeights);
+            depthWeights[x] = new double[order.length];
+            double total = 0;
+            for (int i = 0; i < order.length; i++) {
+               total += ruleWeights.get(order[i]);
+               depthWeights[x][i] = total;
+            }
+         }
+      }
+   }
+   
+   // x: Id of a non-terminal
+   // ruleWeights: Weight of each of its choices
+   // post: Builds the alias table of x by Vose's method. Each choice gets a
+   //       column holding its probability scaled by the number of choices;
+   //       columns over 1 fill up those under 1 until every column holds
+   //       exactly 1, split between its own choice and one alias.
+   private void buildAliasTable(int x, List<Double> ruleWeights) {
+      int count = ruleWeights.size();
+      double total = 0;
+      for (double weight : ruleWeights) {
+         total += weight;
+      }
+      double[] scaled = new double[count];
+      int[] small = new int[count];
+      int[] large = new int[count];
+      int smallCount = 0;
+      int largeCount = 0;
+      for (int i = 0; i < count; i++) {
+         scaled[i] = ruleWeights.get(i) * count / total;
+         if (scaled[i] < 1) {
+            small[smallCount++] = i;
+         } else {
+            large[largeCount++] = i;
+         }
+      }
+      probabilities[x] = new double[count];
+      aliases[x] = new int[count];
+      while (smallCount > 0 && largeCount > 0) {
+         int less = small[--smallCount];
+         int more = large[--largeCount];
+         probabilities[x][less] = scaled[less];
+         aliases[x][less] = more;
+         scaled[more] += scaled[less] - 1;
+         if (scaled[more] < 1) {
+            small[smallCount++] = more;
+         } else {
+            large[largeCount++] = more;
+         }
+      }
+      while (largeCount > 0) {
+         int more = large[--largeCount];
+         probabilities[x][more] = 1;
+         aliases[x][more] = more;
+      }
+      while (smallCount > 0) { // left over only by rounding
+         int less = small[--smallCount];
+         probabilities[x][less] = 1;
+         aliases[x][less] = less;
+      }
+   }
+   
+   // This class expands non-terminals with an explicit stack of the symbols
+   // still to be generated. Each thread generating uses its own Generator,
+   // which keeps its stack between expansions.
+   private class Generator {
+      private int[] stack = new int[16];
+      private int[] levels = new int[16]; // level of each symbol on the stack
+   
+      // symbol: Id of a productive non-terminal
+      // maxDepth: Most levels of expansion wanted, or 0 for no limit
+      // random: Source of the choices between alternatives
+      // output: Builder to which the occurrence is appended
+      // post: Appends a random occurence of symbol to output, with its
+      //       terminals separated by single spaces
+      public void generate(int symbol, int maxDepth, SplittableRandom random,
+            StringBuilder output) {
+         int size = 0;
+         stack[size] = symbol;
+         levels[size++] = 1;
+         boolean first = true;
+         while (size > 0) {
+            int next = stack[--size];
+            int level = levels[size];
+            if (next >= choices.length) {
+               if (!first) {
+                  output.append(' ');
+               }
+               output.append(symbols[next]);
+               first = false;
+            } else {
+               int[] rule;
+               if (maxDepth == 0) {
+                  rule = choices[next][choose(next, random)];
+               } else {
+                  rule = choices[next][choose(next, maxDepth - level + 1, random)];
+               }
+               if (stack.length - size < rule.length) {
+                  int capacity = Math.max(2 * stack.length, size + rule.length);
+                  stack = Arrays.copyOf(stack, capacity);
+                  levels = Arrays.copyOf(levels, capacity);
+               }
+               for (int i = rule.length - 1; i >= 0; i--) {
+                  stack[size] = rule[i];
+                  levels[size++] = level + 1;
+               }
+            }
+         }
+      }
+   
+      // post: Returns a random choice of the non-terminal x, in proportion
+      //       to the weights of the choices
+      private int choose(int x, SplittableRandom random) {
+         int choice = random.nextInt(choices[x].length);
+         if (aliases[x] != null && random.nextDouble() >= probabilities[x][choice]) {
+            choice = aliases[x][choice];
+         }
+         return choice;
+      }
+   
+      // post: Returns a random choice of the non-terminal x among those that
+      //       can finish within the given levels, or among the shallowest if
+      //       none can, in proportion to the weights of the choices
+      private int choose(int x, int levelsLeft, SplittableRandom random) {
+         int[] sorted = depths[x];
+         int count = countAtMost(sorted, levelsLeft);
+         if (count == 0) {
+            count = countAtMost(sorted, sorted[0]);
+         }
+         if (depthWeights[x] == null) {
+            return depthOrder[x][random.nextInt(count)];
+         }
+         double[] totals = depthWeights[x];
+         double target = random.nextDouble() * totals[count - 1];
+         int low = 0;
+         int high = count - 1;
+         while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (totals[middle] <= target) {
+               low = middle + 1;
+            } else {
+               high = middle;
+            }
+         }
+         return depthOrder[x][low];
+      }
+   
+      // post: Returns the number of values of sorted that are at most limit
+      private int countAtMost(int[] sorted, int limit) {
+         int low = 0;
+         int high = sorted.length;
+         while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sorted[middle] <= limit) {
+               low = middle + 1;
+            } else {
+               high = middle;
+            }
+         }
+         return low;
+      }
+   }
+   
+   // This class generates a numbered range of the occurrences of a
+   // non-terminal. It splits only at the start of a chunk, so every chunk is
+   // generated whole from its own random numbers by whichever thread gets it.
+   private class Occurrences implements Spliterator<String> {
+      private int symbol;
+      private long seed;
+      private long next; // number of the next occurrence
+      private long end; // number after the last occurrence
+      private Generator generator;
+      private SplittableRandom random; // null until the first occurrence
+      private StringBuilder output;
+   
+      // symbol: Id of a non-terminal
+      // seed: Seed of the choices of the whole stream
+      // start: Number of the first occurrence, at the start of a chunk
+      // end: Number after the last occurrence
+      public Occurrences(int symbol, long seed, long start, long end) {
+         this.symbol = symbol;
+         this.seed = seed;
+         this.next = start;
+         this.end = end;
+      }
+   
+      public boolean tryAdvance(Consumer<? super String> action) {
+         if (next >= end) {
+            return false;
+         }
+         if (generator == null) {
+            generator = new Generator();
+            output = new StringBuilder();
+         }
+         if (random == null || next % CHUNK_SIZE == 0) {
+            random = chunkRandom(seed, next / CHUNK_SIZE);
+         }
+         output.setLength(0);
+         generator.generate(symbol, 0, random, output);
+         next++;
+         action.accept(output.toString());
+         return true;
+      }
+   
+      // post: Hands the first half of the remaining chunks to a new
+      //       Occurrences, or returns null if there are fewer than two chunks
+      //       left or generation has started
+      public Spliterator<String> trySplit() {
+         long middle = (next + (end - next) / 2) / CHUNK_SIZE * CHUNK_SIZE;
+         if (random != null || middle <= next) {
+            return null;
+         }
+         Occurrences prefix = new Occurrences(symbol, seed, next, middle);
+         next = middle;
+         return prefix;
+      }
+   
+      public long estimateSize() {
+         return end - next;
+      }
+   
+      public int characteristics() {
+         return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
       }
-      String result = "";
-      String[] rules = grammarRules.get(symbol);
-      Random r = new Random();
-      int randomNumber = r.nextInt(rules.length);
-      String randomRule = rules[randomNumber];
-      randomRule = randomRule.trim();
-      String[] chosenRule = randomRule.split("[ \t]+");
-      for (String rule : chosenRule) {
-         result += generate(rule) + " ";
-      }      
-      return result.trim();
    }
 }
\ No newline at end of file
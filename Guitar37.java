@@ -1,29 +1,68 @@
 // This program emulates a guitar with 37 strings using the GuitarString class.
 // Users can press keyboard keys to play various strings. 
+//
+// Only the strings that are sounding are ticked and sampled. A string joins
+// the set of active strings when it is plucked and leaves it once its energy
+// falls below a threshold, so the cost of each sample grows with the number
+// of notes sounding rather than the number of strings.
 
 import java.util.*;
 
 public class Guitar37 implements Guitar {
    public static final String KEYBOARD =
       "q2we4r5ty7u8i9op-[=zxdcfvgbnjmk,.;/' ";  // keyboard layout
-   private GuitarString[] strings = new GuitarString[37];
+   public static final double DEFAULT_THRESHOLD = 1e-9; // under one step of 16-bit audio
+   public static final int STRINGS = 37; // one for each key of KEYBOARD
+   public static final int LOWEST_PITCH = -24; // pitch of the first string
+   public static final int HIGHEST_PITCH = 12; // pitch of the last string
+   private GuitarString[] strings = new GuitarString[STRINGS];
    private int time;
+   private double threshold; // energy below which a string is silent
+   private int[] active = new int[STRINGS]; // indexes of the sounding strings
+   private int activeCount;
+   private boolean[] isActive = new boolean[STRINGS];
     
    // post: populates the strings array with GuitarString objects of specified frequency
    public Guitar37() {
+      this(DEFAULT_THRESHOLD);
+   }
+    
+   // threshold refers to the energy below which a string stops sounding
+   // pre: threshold must be nonnegative (throws IllegalArgumentException if not)
+   // post: populates the strings array with GuitarString objects of specified
+   //       frequency, which stop being played once their energy falls below
+   //       threshold
+   public Guitar37(double threshold) {
+      if (threshold < 0) {
+         throw new IllegalArgumentException("threshold: " + threshold);
+      }
+      this.threshold = threshold;
       for (int i = 0; i < strings.length; i++) {
-         strings[i] = new GuitarString((Math.pow(2.0, (i - 24) / 12.0) * 440));
+         strings[i] = new GuitarString(frequency(i));
       }
    }
     
-   // pre: -24 >= pitch <= 12; if not, ignore note
+   // pre: LOWEST_PITCH <= pitch <= HIGHEST_PITCH; if not, ignore note
    // post: plays string with specified pitch
    public void playNote(int pitch) {
-      if (pitch >= -24 && pitch <= 12) {
-         strings[pitch + 24].pluck();
+      if (pitch >= LOWEST_PITCH && pitch <= HIGHEST_PITCH) {
+         start(pitch - LOWEST_PITCH);
       }  
    }
     
+   // index refers to the index of a string, from 0 to STRINGS - 1
+   // pre: index must be from 0 to STRINGS - 1
+   //      (throws IllegalArgumentException if not)
+   // post: returns the frequency of the string at index, which is a semitone
+   //       above the string before it; the string of pitch 0 is concert A,
+   //       at 440 Hz
+   public static double frequency(int index) {
+      if (index < 0 || index >= STRINGS) {
+         throw new IllegalArgumentException("index: " + index);
+      }
+      return Math.pow(2.0, (index + LOWEST_PITCH) / 12.0) * 440;
+   }
+    
    // pre: key is pressed by the user
    // post: returns whether or not the pressed key is a string on the guitar
    public boolean hasString(char string) {
@@ -37,28 +76,76 @@ public class Guitar37 implements Guitar {
       if (!this.hasString(string)) {
          throw new IllegalArgumentException("key: " + string);
       }
-      strings[KEYBOARD.indexOf(string)].pluck();
+      start(KEYBOARD.indexOf(string));
    }
      
    // post: returns sum of all sample from strings of guitar
    public double sample() {
       double sampleTotal = 0.0;
-      for (int i = 0; i < strings.length; i++) {
-         sampleTotal += strings[i].sample();
+      for (int i = 0; i < activeCount; i++) {
+         sampleTotal += strings[active[i]].sample();
       }
       return sampleTotal;
    }
     
-   // post: updates each string's buffer by one tic
+   // post: updates each sounding string's buffer by one tic
    public void tic() {
       time++;
-      for (int i = 0; i < strings.length; i++) {
-         strings[i].tic();
+      for (int i = 0; i < activeCount; i++) {
+         strings[active[i]].tic();
+      }
+      retireSilent();
+   }
+    
+   // out refers to the array that receives the samples
+   // offset refers to the index of out that receives the first sample
+   // frames refers to the number of samples to render
+   // pre: frames must be nonnegative and offset + frames must fit in out
+   //      (throws IllegalArgumentException if not)
+   // post: stores in out the next frames samples of the guitar, the same
+   //       ones frames calls of sample() and tic() would give except that
+   //       silent strings are only retired at the end of the block, and
+   //       advances the time by frames
+   public void render(double[] out, int offset, int frames) {
+      if (offset < 0 || frames < 0 || offset > out.length - frames) {
+         throw new IllegalArgumentException("offset: " + offset + " frames: " + frames);
+      }
+      Arrays.fill(out, offset, offset + frames, 0.0);
+      for (int i = 0; i < activeCount; i++) {
+         strings[active[i]].render(out, offset, frames);
       }
+      time += frames;
+      retireSilent();
+   }
+    
+   // post: returns the number of strings sounding
+   public int activeCount() {
+      return activeCount;
    }
     
    // post: returns the current time
    public int time() {
       return time;
    }
+    
+   // post: plucks the string at index and adds it to the sounding strings
+   private void start(int index) {
+      strings[index].pluck();
+      if (!isActive[index]) {
+         isActive[index] = true;
+         active[activeCount++] = index;
+      }
+   }
+    
+   // post: removes the strings whose energy has fallen below the threshold
+   //       from the sounding strings
+   private void retireSilent() {
+      for (int i = activeCount - 1; i >= 0; i--) {
+         int index = active[i];
+         if (strings[index].energy() < threshold) {
+            isActive[index] = false;
+            active[i] = active[--activeCount];
+         }
+      }
+   }
 }
\ No newline at end of file
@@ -0,0 +1,153 @@
+// This program measures how much faster than real time a Guitar37 can be
+// synthesized. It plays a note every quarter of a second, cycling through all
+// 37 strings, and times three ways of producing the same number of samples:
+// calling tic and sample on strings stored as linked lists the way
+// GuitarString originally was, calling tic and sample on Guitar37, and
+// rendering whole blocks with Guitar37.render. Finally it renders many
+// guitars at once, each playing a note every few seconds, to show that
+// guitars whose strings are silent cost almost nothing.
+//
+// usage: java GuitarBenchmark [seconds] [block size] [guitars]
+
+import java.util.*;
+
+public class GuitarBenchmark {
+   public static final int DEFAULT_SECONDS = 60;
+   public static final int DEFAULT_BLOCK = 512;
+   public static final int NOTE_INTERVAL = GuitarString.SAMPLE_RATE / 4; // samples between notes
+   public static final int STRINGS = 37;
+   public static final int DEFAULT_GUITARS = 200;
+   public static final int SPARSE_INTERVAL = 4 * GuitarString.SAMPLE_RATE; // notes of each guitar
+
+   public static void main(String[] args) {
+      int seconds = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_SECONDS;
+      int block = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_BLOCK;
+      int guitars = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_GUITARS;
+      int samples = seconds * GuitarString.SAMPLE_RATE;
+      System.out.printf("%-12s %10s %12s%n", "method", "ms", "x real time");
+
+      LinkedString[] original = new LinkedString[STRINGS];
+      for (int i = 0; i < STRINGS; i++) {
+         original[i] = new LinkedString(Math.pow(2.0, (i - 24) / 12.0) * 440);
+      }
+      double checksum = 0;
+      long start = System.nanoTime();
+      for (int t = 0; t < samples; t++) {
+         if (t % NOTE_INTERVAL == 0) {
+            original[(t / NOTE_INTERVAL) % STRINGS].pluck();
+         }
+         double sample = 0;
+         for (LinkedString string : original) {
+            sample += string.sample();
+         }
+         for (LinkedString string : original) {
+            string.tic();
+         }
+         checksum += Math.abs(sample);
+      }
+      report("linked list", seconds, System.nanoTime() - start);
+
+      Guitar37 guitar = new Guitar37();
+      start = System.nanoTime();
+      for (int t = 0; t < samples; t++) {
+         if (t % NOTE_INTERVAL == 0) {
+            guitar.playNote((t / NOTE_INTERVAL) % STRINGS - 24);
+         }
+         checksum += Math.abs(guitar.sample());
+         guitar.tic();
+      }
+      report("tic/sample", seconds, System.nanoTime() - start);
+
+      guitar = new Guitar37();
+      double[] out = new double[block];
+      start = System.nanoTime();
+      for (int t = 0; t < samples; ) {
+         if (t % NOTE_INTERVAL == 0) {
+            guitar.playNote((t / NOTE_INTERVAL) % STRINGS - 24);
+         }
+         int frames = Math.min(block, Math.min(samples - t, NOTE_INTERVAL - t % NOTE_INTERVAL));
+         guitar.render(out, 0, frames);
+         for (int i = 0; i < frames; i++) {
+            checksum += Math.abs(out[i]);
+         }
+         t += frames;
+      }
+      report("render", seconds, System.nanoTime() - start);
+
+      Guitar37[] band = new Guitar37[guitars];
+      for (int i = 0; i < guitars; i++) {
+         band[i] = new Guitar37();
+      }
+      double[] mix = new double[block];
+      long voices = 0;
+      int blocks = 0;
+      start = System.nanoTime();
+      for (int t = 0; t < samples; t += block) {
+         int frames = Math.min(block, samples - t);
+         Arrays.fill(mix, 0, frames, 0.0);
+         for (int i = 0; i < guitars; i++) {
+            // each guitar starts a note in the block holding its next note time
+            long due = (long) i * SPARSE_INTERVAL / guitars;
+            if ((t + SPARSE_INTERVAL - due) % SPARSE_INTERVAL < frames) {
+               band[i].playNote((t / SPARSE_INTERVAL + i) % STRINGS - 24);
+            }
+            band[i].render(out, 0, frames);
+            for (int j = 0; j < frames; j++) {
+               mix[j] += out[j];
+            }
+            voices += band[i].activeCount();
+         }
+         for (int j = 0; j < frames; j++) {
+            checksum += Math.abs(mix[j]);
+         }
+         blocks++;
+      }
+      report(guitars + " guitars", seconds, System.nanoTime() - start);
+      System.out.printf("%.1f strings sounding on average out of %d%n",
+         (double) voices / blocks, guitars * STRINGS);
+      System.out.println("checksum " + checksum);
+   }
+
+   // post: prints the time taken to synthesize the given number of seconds
+   private static void report(String name, int seconds, long nanos) {
+      System.out.printf("%-12s %10.1f %12.1f%n", name, nanos / 1e6, seconds / (nanos / 1e9));
+   }
+
+   // This class is a guitar string whose delay line is a linked list of
+   // boxed doubles, as GuitarString originally was
+   private static class LinkedString {
+      private Queue<Double> buffer = new LinkedList<Double>();
+      private int capacity;
+
+      // post: constructs a string at rest with the given frequency
+      public LinkedString(double frequency) {
+         capacity = (int) Math.round(GuitarString.SAMPLE_RATE / frequency);
+         for (int i = 0; i < capacity; i++) {
+            buffer.add(0.0);
+         }
+      }
+
+      // post: fills the buffer with random values from -0.5 to 0.5
+      public void pluck() {
+         Random rand = new Random();
+         while (buffer.size() > 0) {
+            buffer.remove();
+         }
+         for (int i = 0; i < capacity; i++) {
+            buffer.add(rand.nextDouble() - 0.5);
+         }
+      }
+
+      // post: removes the front value and adds a decayed value at the end
+      public void tic() {
+         double val1 = buffer.remove();
+         double val2 = buffer.peek();
+         buffer.add(((val1 + val2) / 2) * GuitarString.DECAY_FACTOR);
+      }
+
+      // post: returns the front value
+      public double sample() {
+         return buffer.peek();
+      }
+   }
+}
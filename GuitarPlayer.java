@@ -0,0 +1,284 @@
+// This program plays a Guitar37 in real time on a thread of its own. Other
+// threads never touch the guitar: a key press only adds the string to play to
+// a lock-free IntQueue, which the render thread empties just before it
+// renders each block. The render thread waits until the audio line has room
+// for one more block, takes the notes, renders the block into a buffer
+// allocated once, converts it to 16-bit samples and writes it to the line,
+// so a note is heard at most one block plus the line's buffer after the key
+// is pressed, and nothing is allocated or locked while playing. The default
+// blocks of 64 samples in a line of two blocks keep that under 4.4 ms.
+//
+// The render thread counts the blocks it has played, the time it took to
+// render them and the underruns, which are the blocks that found the line
+// already empty, so that the line played silence before them. It updates
+// these counts between two increments of a version number, which is odd
+// while an update is under way, so that a reader of several counts can
+// retry until it has read them all from the same update.
+//
+// usage: java GuitarPlayer [block size] [buffer blocks]
+// then type keys of Guitar37.KEYBOARD and press return to play them
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+import javax.sound.sampled.*;
+
+public class GuitarPlayer {
+   public static final int SAMPLE_RATE = GuitarString.SAMPLE_RATE;
+   public static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+   public static final int DEFAULT_BLOCK_SIZE = 64; // about 1.5 ms
+   public static final int DEFAULT_BUFFER_BLOCKS = 2; // blocks the line holds
+   public static final int DEFAULT_QUEUE_SIZE = 256;
+   public static final int MAX_16_BIT = Short.MAX_VALUE;
+   private static final int NO_NOTE = -1;
+   private Guitar37 guitar;
+   private SourceDataLine line;
+   private boolean ownsLine; // whether close closes the line
+   private IntQueue notes; // indexes of the strings to pluck
+   private double[] samples;
+   private byte[] bytes;
+   private Thread thread;
+   private volatile boolean running;
+   private volatile long blocks;
+   private volatile long underruns;
+   private volatile long droppedNotes;
+   private volatile long totalRenderNanos;
+   private volatile long maxRenderNanos;
+   private volatile long lastRenderNanos;
+   private volatile long version; // odd while the counts above are updated
+
+   // post: constructs a player of a new guitar on the default audio line,
+   //       which holds DEFAULT_BUFFER_BLOCKS blocks of DEFAULT_BLOCK_SIZE
+   //       samples (throws LineUnavailableException if there is no line)
+   public GuitarPlayer() throws LineUnavailableException {
+      this(DEFAULT_BLOCK_SIZE, DEFAULT_BUFFER_BLOCKS);
+   }
+
+   // blockSize: Number of samples rendered at a time
+   // bufferBlocks: Number of blocks the audio line holds
+   // pre: blockSize and bufferBlocks must be positive
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a player of a new guitar on the default audio line
+   //       (throws LineUnavailableException if there is no line)
+   public GuitarPlayer(int blockSize, int bufferBlocks) throws LineUnavailableException {
+      this(new Guitar37(), openLine(blockSize, bufferBlocks), blockSize, DEFAULT_QUEUE_SIZE);
+      ownsLine = true;
+   }
+
+   // guitar: Guitar to play, which no other thread may use while it plays
+   // line: Open line of FORMAT to play it on
+   // blockSize: Number of samples rendered at a time
+   // queueSize: Most notes waiting to be played, a power of 2
+   // pre: guitar and line must exist, line must be open with FORMAT and hold
+   //      at least one block, and queueSize must be a power of 2
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a player that has not started playing
+   public GuitarPlayer(Guitar37 guitar, SourceDataLine line, int blockSize, int queueSize) {
+      if (guitar == null || line == null || !line.isOpen()
+            || !line.getFormat().matches(FORMAT)) {
+         throw new IllegalArgumentException("guitar and open line of " + FORMAT
+            + " must exist");
+      }
+      if (blockSize < 1 || line.getBufferSize() < blockSize * 2) {
+         throw new IllegalArgumentException("blockSize: " + blockSize);
+      }
+      this.guitar = guitar;
+      this.line = line;
+      notes = new IntQueue(queueSize);
+      samples = new double[blockSize];
+      bytes = new byte[blockSize * 2];
+   }
+
+   // pre: the player must not have been started before
+   //      (throws IllegalStateException if not)
+   // post: fills the line with silence, starts it and starts the render
+   //       thread
+   public void start() {
+      if (thread != null) {
+         throw new IllegalStateException("already started");
+      }
+      while (line.available() >= bytes.length) {
+         line.write(bytes, 0, bytes.length);
+      }
+      line.start();
+      running = true;
+      thread = new Thread(new Runnable() {
+         public void run() {
+            play();
+         }
+      }, "GuitarPlayer");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MAX_PRIORITY);
+      thread.start();
+   }
+
+   // post: stops the render thread and the line, and closes the line if the
+   //       player opened it
+   public void close() throws InterruptedException {
+      running = false;
+      if (thread != null) {
+         thread.join();
+      }
+      line.stop();
+      if (ownsLine) {
+         line.close();
+      }
+   }
+
+   // pre: called by one thread only, since the queue has a single producer;
+   //      key must be in Guitar37.KEYBOARD
+   //      (throws IllegalArgumentException if not)
+   // post: queues the string of key to be plucked at the start of the next
+   //       block and returns true, or returns false and counts the note as
+   //       dropped if too many notes are waiting
+   public boolean pluck(char key) {
+      int index = Guitar37.KEYBOARD.indexOf(key);
+      if (index == -1) {
+         throw new IllegalArgumentException("key: " + key);
+      }
+      return queue(index);
+   }
+
+   // pre: called by the same single thread as pluck
+   // post: queues the note of the given pitch as pluck does and returns
+   //       whether it was queued; pitches outside Guitar37.LOWEST_PITCH to
+   //       HIGHEST_PITCH are ignored, as by Guitar37.playNote
+   public boolean playNote(int pitch) {
+      return pitch >= Guitar37.LOWEST_PITCH && pitch <= Guitar37.HIGHEST_PITCH
+         && queue(pitch - Guitar37.LOWEST_PITCH);
+   }
+
+   // post: returns the number of blocks played
+   public long blocks() {
+      return blocks;
+   }
+
+   // post: returns the number of blocks that found the line empty
+   public long underruns() {
+      return underruns;
+   }
+
+   // post: returns the number of notes dropped because the queue was full
+   public long droppedNotes() {
+      return droppedNotes;
+   }
+
+   // post: returns the nanoseconds taken to render the last block
+   public long lastRenderNanos() {
+      return lastRenderNanos;
+   }
+
+   // post: returns the most nanoseconds taken to render a block
+   public long maxRenderNanos() {
+      return maxRenderNanos;
+   }
+
+   // post: returns the mean nanoseconds taken to render a block, or 0 if
+   //       none has been rendered, from the blocks and time of one update
+   public double averageRenderNanos() {
+      long before;
+      long count;
+      long total;
+      do {
+         before = version;
+         count = blocks;
+         total = totalRenderNanos;
+      } while ((before & 1) != 0 || version != before);
+      return (count == 0) ? 0 : (double) total / count;
+   }
+
+   // post: returns the nanoseconds of sound in one block
+   public long blockNanos() {
+      return samples.length * 1000000000L / SAMPLE_RATE;
+   }
+
+   // post: returns the longest time in milliseconds from a note being queued
+   //       to it being heard, which is the line's buffer plus one block
+   public double latencyMillis() {
+      return (line.getBufferSize() / 2 + samples.length) * 1000.0 / SAMPLE_RATE;
+   }
+
+   // post: queues the string at index, counting it as dropped if the queue
+   //       is full, and returns whether it was queued
+   private boolean queue(int index) {
+      if (notes.offer(index)) {
+         return true;
+      }
+      droppedNotes++;
+      return false;
+   }
+
+   // post: renders blocks and writes them to the line until the player is
+   //       closed
+   private void play() {
+      long pause = blockNanos() / 8;
+      while (running) {
+         if (line.available() < bytes.length) {
+            LockSupport.parkNanos(pause);
+         } else {
+            long start = System.nanoTime();
+            for (int index = notes.poll(NO_NOTE); index != NO_NOTE;
+                  index = notes.poll(NO_NOTE)) {
+               guitar.playNote(index + Guitar37.LOWEST_PITCH);
+            }
+            guitar.render(samples, 0, samples.length);
+            for (int i = 0; i < samples.length; i++) {
+               double sample = Math.max(-1.0, Math.min(1.0, samples[i]));
+               short value = (short) (sample * MAX_16_BIT);
+               bytes[2 * i] = (byte) value;
+               bytes[2 * i + 1] = (byte) (value >> 8);
+            }
+            long nanos = System.nanoTime() - start;
+            boolean underrun = line.available() >= line.getBufferSize();
+            line.write(bytes, 0, bytes.length);
+            version++;
+            lastRenderNanos = nanos;
+            totalRenderNanos += nanos;
+            if (nanos > maxRenderNanos) {
+               maxRenderNanos = nanos;
+            }
+            if (underrun) {
+               underruns++;
+            }
+            blocks++;
+            version++;
+         }
+      }
+   }
+
+   // post: opens the default line of FORMAT holding bufferBlocks blocks of
+   //       blockSize samples
+   private static SourceDataLine openLine(int blockSize, int bufferBlocks)
+         throws LineUnavailableException {
+      if (blockSize < 1 || bufferBlocks < 1) {
+         throw new IllegalArgumentException("blockSize: " + blockSize
+            + " bufferBlocks: " + bufferBlocks);
+      }
+      SourceDataLine line = AudioSystem.getSourceDataLine(FORMAT);
+      line.open(FORMAT, blockSize * bufferBlocks * 2);
+      return line;
+   }
+
+   public static void main(String[] args) throws Exception {
+      int blockSize = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_BLOCK_SIZE;
+      int bufferBlocks = (args.length > 1) ? Integer.parseInt(args[1])
+         : DEFAULT_BUFFER_BLOCKS;
+      GuitarPlayer player = new GuitarPlayer(blockSize, bufferBlocks);
+      player.start();
+      System.out.printf("latency at most %.1f ms; type keys and press return%n",
+         player.latencyMillis());
+      Scanner console = new Scanner(System.in);
+      while (console.hasNextLine()) {
+         String line = console.nextLine();
+         for (int i = 0; i < line.length(); i++) {
+            if (Guitar37.KEYBOARD.indexOf(line.charAt(i)) != -1) {
+               player.pluck(line.charAt(i));
+            }
+         }
+      }
+      player.close();
+      System.out.printf("%d blocks, %d underruns, %d dropped notes, render %.1f us "
+         + "mean %.1f us max of %.1f us%n", player.blocks(), player.underruns(),
+         player.droppedNotes(), player.averageRenderNanos() / 1e3,
+         player.maxRenderNanos() / 1e3, player.blockNanos() / 1e3);
+   }
+}
@@ -0,0 +1,345 @@
+// This program renders a list of timed notes on the 37 strings of Guitar37
+// to a 16-bit PCM WAV file, without an audio device, so that it can run on a
+// server. The strings never affect one another, so each block of the output
+// is rendered by one task per sounding string, spread over the threads of a
+// pool, each into a buffer of its own. The buffers are then mixed in string
+// order, converted to 16-bit samples in a direct buffer, and written to the
+// channel a block at a time. Because every string plucks from its own seeded
+// random numbers and the mix always adds the strings in the same order, the
+// file is the same for the same notes and seed whatever the number of threads.
+// The strings are tuned, numbered and retired as Guitar37 does, so a file
+// sounds like the notes played live on a Guitar37 with the same threshold.
+//
+// A notes file has one note per line: the time in seconds at which the note
+// starts, then either a pitch as for Guitar37.playNote, from -24 to 12, or a
+// key of Guitar37.KEYBOARD in single quotes, as in 0.5 'q'. Keys are quoted
+// so that digit keys are not read as pitches and the space key can be
+// written, as ' ', and a quote key is written '''. Blank lines and lines
+// starting with # are skipped.
+//
+// A GuitarRenderer renders into buffers that it reuses from one file to the
+// next, so it should only be used by one thread at a time.
+//
+// usage: java GuitarRenderer <notes file> <wav file> [tail seconds] [seed]
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class GuitarRenderer {
+   public static final int STRINGS = Guitar37.STRINGS;
+   public static final int SAMPLE_RATE = GuitarString.SAMPLE_RATE;
+   public static final int DEFAULT_BLOCK_SIZE = 8192;
+   public static final double DEFAULT_TAIL = 3.0; // seconds after the last note
+   public static final int HEADER_SIZE = 44;
+   public static final int MAX_FRAMES = (int) ((0xFFFFFFFFL - (HEADER_SIZE - 8)) / 2);
+   public static final int MAX_16_BIT = Short.MAX_VALUE;
+   private long seed;
+   private int blockSize;
+   private ForkJoinPool pool;
+   private double threshold; // energy below which a string stops sounding
+   private int[][] plucks = new int[STRINGS][1]; // frames of each string's notes
+   private int[] pluckCounts = new int[STRINGS];
+   private int lastFrame = -1;
+   private GuitarString[] strings = new GuitarString[STRINGS];
+   private double[][] buffers; // samples of each string in the current block
+   private double[] mix;
+   private ByteBuffer bytes;
+   private int[] cursors = new int[STRINGS]; // next pluck of each string
+   private boolean[] sounding = new boolean[STRINGS];
+   private boolean[] rendered = new boolean[STRINGS]; // in the current block
+   private int[] work = new int[STRINGS]; // strings rendered in the current block
+
+   // post: constructs a renderer with no notes that plucks with the given seed
+   public GuitarRenderer(long seed) {
+      this(seed, DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+   }
+
+   // seed: Seed of the random numbers the strings are plucked with
+   // blockSize: Number of samples rendered and written at a time
+   // pool: Pool whose threads render the strings
+   // pre: blockSize must be positive and pool must exist
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a renderer with no notes whose strings stop sounding
+   //       below Guitar37.DEFAULT_THRESHOLD
+   public GuitarRenderer(long seed, int blockSize, ForkJoinPool pool) {
+      this(seed, blockSize, pool, Guitar37.DEFAULT_THRESHOLD);
+   }
+
+   // seed: Seed of the random numbers the strings are plucked with
+   // blockSize: Number of samples rendered and written at a time
+   // pool: Pool whose threads render the strings
+   // threshold: Energy below which a string stops sounding, as for
+   //            Guitar37(double)
+   // pre: blockSize must be positive, pool must exist and threshold must be
+   //      nonnegative (throws IllegalArgumentException if not)
+   // post: constructs a renderer with no notes
+   public GuitarRenderer(long seed, int blockSize, ForkJoinPool pool, double threshold) {
+      if (blockSize < 1 || pool == null || !(threshold >= 0)) {
+         throw new IllegalArgumentException("pool must exist, blockSize: " + blockSize
+            + " threshold: " + threshold);
+      }
+      this.seed = seed;
+      this.blockSize = blockSize;
+      this.pool = pool;
+      this.threshold = threshold;
+      buffers = new double[STRINGS][blockSize];
+      mix = new double[blockSize];
+      bytes = ByteBuffer.allocateDirect(Math.max(blockSize * 2, HEADER_SIZE));
+      bytes.order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   // seconds: Time at which the note starts
+   // pitch: Pitch of the note, as for Guitar37.playNote
+   // pre: seconds must be nonnegative and start before MAX_FRAMES samples,
+   //      and pitch must be from Guitar37.LOWEST_PITCH to HIGHEST_PITCH
+   //      (throws IllegalArgumentException if not)
+   // post: adds the note to those rendered
+   public void addNote(double seconds, int pitch) {
+      if (pitch < Guitar37.LOWEST_PITCH || pitch > Guitar37.HIGHEST_PITCH) {
+         throw new IllegalArgumentException("pitch: " + pitch);
+      }
+      addPluck(seconds, pitch - Guitar37.LOWEST_PITCH);
+   }
+
+   // seconds: Time at which the note starts
+   // key: Key of Guitar37.KEYBOARD that plays the note
+   // pre: seconds must be nonnegative and start before MAX_FRAMES samples,
+   //      and key must be in Guitar37.KEYBOARD (throws
+   //      IllegalArgumentException if not)
+   // post: adds the note to those rendered
+   public void addNote(double seconds, char key) {
+      int index = Guitar37.KEYBOARD.indexOf(key);
+      if (index == -1) {
+         throw new IllegalArgumentException("key: " + key);
+      }
+      addPluck(seconds, index);
+   }
+
+   // input: Lines of a notes file
+   // pre: every line must be blank, a comment or a valid note
+   //      (throws IllegalArgumentException if not)
+   // post: adds the notes of input to those rendered
+   public void addNotes(Scanner input) {
+      while (input.hasNextLine()) {
+         String line = input.nextLine().trim();
+         if (line.length() > 0 && !line.startsWith("#")) {
+            String[] parts = line.split("\\s+", 2);
+            if (parts.length != 2) {
+               throw new IllegalArgumentException("note: " + line);
+            }
+            String note = parts[1];
+            try {
+               double seconds = Double.parseDouble(parts[0]);
+               if (note.length() == 3 && note.charAt(0) == '\''
+                     && note.charAt(2) == '\'') {
+                  addNote(seconds, note.charAt(1));
+               } else {
+                  addNote(seconds, Integer.parseInt(note));
+               }
+            } catch (NumberFormatException e) {
+               throw new IllegalArgumentException("note: " + line);
+            }
+         }
+      }
+   }
+
+   // tailSeconds: Time rendered after the start of the last note
+   // pre: tailSeconds must be nonnegative and the file no longer than
+   //      MAX_FRAMES samples (throws IllegalArgumentException if not)
+   // post: returns the number of samples render writes for tailSeconds
+   public int frames(double tailSeconds) {
+      long frames = (lastFrame + 1) + Math.round(tailSeconds * SAMPLE_RATE);
+      if (!(tailSeconds >= 0) || frames > MAX_FRAMES) {
+         throw new IllegalArgumentException("tailSeconds: " + tailSeconds);
+      }
+      return (int) frames;
+   }
+
+   // target: File to which the WAV file is written
+   // tailSeconds: Time rendered after the start of the last note
+   // pre: tailSeconds must be nonnegative and the file no longer than
+   //      MAX_FRAMES samples (throws IllegalArgumentException if not)
+   // post: writes the notes to target as a WAV file, replacing anything
+   //       already in it, and returns the number of samples written
+   public int render(File target, double tailSeconds) throws IOException {
+      int frames = frames(tailSeconds);
+      try (FileChannel output = FileChannel.open(target.toPath(),
+            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+         render(output, frames);
+      }
+      return frames;
+   }
+
+   // output: Channel to which the WAV file is written
+   // frames: Number of samples written
+   // pre: frames must be from 0 to MAX_FRAMES
+   //      (throws IllegalArgumentException if not)
+   // post: writes the first frames samples of the notes to output as a
+   //       mono 16-bit WAV file. Every string starts at rest, so rendering
+   //       the same notes again writes the same file.
+   public void render(WritableByteChannel output, int frames) throws IOException {
+      if (frames < 0 || frames > MAX_FRAMES) {
+         throw new IllegalArgumentException("frames: " + frames);
+      }
+      Random seeds = new Random(seed);
+      for (int i = 0; i < STRINGS; i++) {
+         Arrays.sort(plucks[i], 0, pluckCounts[i]);
+         strings[i] = new GuitarString(Guitar37.frequency(i), seeds.nextLong());
+         cursors[i] = 0;
+         sounding[i] = false;
+      }
+      bytes.clear();
+      writeHeader(frames);
+      for (int start = 0; start < frames; start += blockSize) {
+         int length = Math.min(blockSize, frames - start);
+         int count = 0;
+         for (int i = 0; i < STRINGS; i++) {
+            rendered[i] = sounding[i] || (cursors[i] < pluckCounts[i]
+               && plucks[i][cursors[i]] < start + length);
+            if (rendered[i]) {
+               work[count++] = i;
+            }
+         }
+         if (count > 0) {
+            pool.invoke(new StringsTask(0, count, start, length));
+         }
+         Arrays.fill(mix, 0, length, 0.0);
+         for (int i = 0; i < STRINGS; i++) {
+            if (rendered[i]) {
+               double[] buffer = buffers[i];
+               for (int j = 0; j < length; j++) {
+                  mix[j] += buffer[j];
+               }
+            }
+         }
+         for (int j = 0; j < length; j++) {
+            double sample = Math.max(-1.0, Math.min(1.0, mix[j]));
+            if (!bytes.hasRemaining()) {
+               flush(output);
+            }
+            bytes.putShort((short) (sample * MAX_16_BIT));
+         }
+      }
+      flush(output);
+   }
+
+   // post: adds a pluck of the string at index at the given time
+   private void addPluck(double seconds, int index) {
+      long frame = Math.round(seconds * SAMPLE_RATE);
+      if (!(seconds >= 0) || frame >= MAX_FRAMES) {
+         throw new IllegalArgumentException("seconds: " + seconds);
+      }
+      if (pluckCounts[index] == plucks[index].length) {
+         plucks[index] = Arrays.copyOf(plucks[index], 2 * pluckCounts[index]);
+      }
+      plucks[index][pluckCounts[index]++] = (int) frame;
+      lastFrame = Math.max(lastFrame, (int) frame);
+   }
+
+   // post: renders the given samples of the string at index into its buffer,
+   //       plucking it at the start of each of its notes, and records whether
+   //       it is still sounding
+   private void renderString(int index, int start, int length) {
+      GuitarString string = strings[index];
+      double[] buffer = buffers[index];
+      Arrays.fill(buffer, 0, length, 0.0);
+      int done = 0;
+      int[] frames = plucks[index];
+      int next = cursors[index];
+      while (next < pluckCounts[index] && frames[next] < start + length) {
+         int at = frames[next] - start;
+         string.render(buffer, done, at - done);
+         string.pluck();
+         done = at;
+         next++;
+      }
+      string.render(buffer, done, length - done);
+      cursors[index] = next;
+      sounding[index] = string.energy() >= threshold;
+   }
+
+   // post: puts the header of a mono 16-bit WAV file of the given number of
+   //       samples in the output buffer
+   private void writeHeader(int frames) {
+      int dataSize = frames * 2;
+      putTag("RIFF");
+      bytes.putInt(HEADER_SIZE - 8 + dataSize);
+      putTag("WAVE");
+      putTag("fmt ");
+      bytes.putInt(16); // size of the format chunk
+      bytes.putShort((short) 1); // PCM
+      bytes.putShort((short) 1); // channels
+      bytes.putInt(SAMPLE_RATE);
+      bytes.putInt(SAMPLE_RATE * 2); // bytes per second
+      bytes.putShort((short) 2); // bytes per sample
+      bytes.putShort((short) 16); // bits per sample
+      putTag("data");
+      bytes.putInt(dataSize);
+   }
+
+   // post: puts the four characters of tag in the output buffer
+   private void putTag(String tag) {
+      for (int i = 0; i < tag.length(); i++) {
+         bytes.put((byte) tag.charAt(i));
+      }
+   }
+
+   // post: writes the contents of the output buffer to output and empties it
+   private void flush(WritableByteChannel output) throws IOException {
+      bytes.flip();
+      while (bytes.hasRemaining()) {
+         output.write(bytes);
+      }
+      bytes.clear();
+   }
+
+   // This class renders a run of the strings in work, splitting it in half
+   // until each task renders one string
+   private class StringsTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      private int low;
+      private int high;
+      private int start;
+      private int length;
+
+      // post: constructs a task that renders work[low] to work[high - 1]
+      public StringsTask(int low, int high, int start, int length) {
+         this.low = low;
+         this.high = high;
+         this.start = start;
+         this.length = length;
+      }
+
+      protected void compute() {
+         if (high - low == 1) {
+            renderString(work[low], start, length);
+         } else {
+            int middle = (low + high) / 2;
+            invokeAll(new StringsTask(low, middle, start, length),
+               new StringsTask(middle, high, start, length));
+         }
+      }
+   }
+
+   public static void main(String[] args) throws IOException {
+      if (args.length < 2) {
+         System.out.println("usage: java GuitarRenderer <notes file> <wav file> "
+            + "[tail seconds] [seed]");
+         return;
+      }
+      double tail = (args.length > 2) ? Double.parseDouble(args[2]) : DEFAULT_TAIL;
+      long seed = (args.length > 3) ? Long.parseLong(args[3]) : 42;
+      GuitarRenderer renderer = new GuitarRenderer(seed);
+      renderer.addNotes(new Scanner(new File(args[0])));
+      long start = System.nanoTime();
+      int frames = renderer.render(new File(args[1]), tail);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%.1f seconds of audio in %.2f seconds (%.1fx real time)%n",
+         (double) frames / SAMPLE_RATE, seconds, frames / (double) SAMPLE_RATE / seconds);
+   }
+}
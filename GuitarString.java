@@ -1,19 +1,48 @@
 // This program models the physics of a guitar string using the
 // Karplus-Strong Algorithm. 
+//
+// The delay line is a ring buffer of doubles: the front of the queue is at
+// index first, and each tic overwrites the front with the decayed value and
+// moves first along one place, so that value becomes the back of the queue.
+// Nothing is allocated after construction, and render advances many tics in
+// one tight loop.
+//
+// Every pass of first around the buffer rewrites each slot once, so the sum
+// of the squares of the values written during a pass is exactly the energy
+// of the buffer when the pass ends. The string keeps that sum as it goes and
+// publishes it at the end of each pass, which lets a player tell cheaply when
+// the string has died away.
 
 import java.util.*;
 
 public class GuitarString {
    public static final int SAMPLE_RATE = StdAudio.SAMPLE_RATE;
    public static final double DECAY_FACTOR = 0.996;
-   private Queue<Double> buffer;
+   private double[] buffer;
+   private int first; // index of the front of the queue
    private int capacity; 
+   private Random random;
+   private double energy; // sum of squares of the buffer at the end of the last pass
+   private double passEnergy; // sum of squares written so far in this pass
    
    // pre: frequency must be greater than 0 
    //      (throws IllegalArgumentException if not)
    // post: constructs a GuitarString at rest -
    //       all queue values initialized to 0 
    public GuitarString(double frequency) {
+      this(frequency, new Random());
+   }
+   
+   // pre: frequency must be greater than 0 
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a GuitarString at rest whose plucks are the same
+   //       every time for the same seed
+   public GuitarString(double frequency, long seed) {
+      this(frequency, new Random(seed));
+   }
+   
+   // post: constructs a GuitarString at rest that plucks with random
+   private GuitarString(double frequency, Random random) {
       if (frequency <= 0) {
          throw new IllegalArgumentException("frequency: " + frequency); 
       }
@@ -21,10 +50,8 @@ public class GuitarString {
       if (capacity < 2) {
          throw new IllegalArgumentException("capacity: " + capacity); 
       }
-      buffer = new LinkedList<Double>();
-      for (int i = 0; i < capacity; i++) {
-         buffer.add(0.0);
-      }
+      buffer = new double[capacity];
+      this.random = random;
    }
    
    // pre: array init must contain at least 2 values
@@ -34,35 +61,92 @@ public class GuitarString {
       if (init.length < 2) {
          throw new IllegalArgumentException("init.length: " + init.length);
       }
-      buffer = new LinkedList<Double>();
-      for (int i = 0; i < init.length; i++) {
-         buffer.add(init[i]);
-      }
+      buffer = init.clone();
       capacity = init.length;
+      random = new Random();
+      startPass();
    }
    
    // post: buffer is populated by random numbers between
    //       -0.5 inclusive and 0.5 exclusive
    public void pluck() {
-      Random rand = new Random();
-      while (buffer.size() > 0) {
-         buffer.remove();
-      }
       for (int i = 0; i < capacity; i++) {
-         buffer.add(rand.nextDouble() - 0.5);
+         buffer[i] = random.nextDouble() - 0.5;
       }
+      first = 0;
+      startPass();
    }
    
    // post: front value is removed and new decayed value is added
    //       to end of buffer
    public void tic() {
-      double val1 = buffer.remove();
-      double val2 = buffer.peek();
-      buffer.add(((val1 + val2) / 2) * DECAY_FACTOR); 
+      int second = (first + 1 == capacity) ? 0 : first + 1;
+      double value = ((buffer[first] + buffer[second]) / 2) * DECAY_FACTOR;
+      buffer[first] = value;
+      passEnergy += value * value;
+      first = second;
+      if (first == 0) {
+         energy = passEnergy;
+         passEnergy = 0;
+      }
    }
    
    // post: returns front value of buffer
    public double sample() {
-      return buffer.peek();
+      return buffer[first];
+   }
+   
+   // out refers to the array to which the samples are added
+   // offset refers to the index of out that receives the first sample
+   // frames refers to the number of samples to render
+   // pre: frames must be nonnegative and offset + frames must fit in out
+   //      (throws IllegalArgumentException if not)
+   // post: adds to out the samples of the next frames tics, each one the
+   //       value sample() would return before the tic, and advances the
+   //       string by frames tics
+   public void render(double[] out, int offset, int frames) {
+      if (offset < 0 || frames < 0 || offset > out.length - frames) {
+         throw new IllegalArgumentException("offset: " + offset + " frames: " + frames);
+      }
+      int end = offset + frames;
+      int i = offset;
+      double written = passEnergy;
+      while (i < end) {
+         int run = Math.min(end - i, capacity - 1 - first); // tics that do not wrap
+         for (int stop = first + run; first < stop; first++) {
+            double front = buffer[first];
+            out[i++] += front;
+            double value = ((front + buffer[first + 1]) / 2) * DECAY_FACTOR;
+            buffer[first] = value;
+            written += value * value;
+         }
+         if (i < end) { // the front is the last slot, so the tic wraps
+            double front = buffer[first];
+            out[i++] += front;
+            double value = ((front + buffer[0]) / 2) * DECAY_FACTOR;
+            buffer[first] = value;
+            first = 0;
+            energy = written + value * value;
+            written = 0;
+         }
+      }
+      passEnergy = written;
+   }
+   
+   // post: returns the mean square of the values in the buffer as of the
+   //       last time the front went all the way around it, so the result
+   //       trails the string by at most one period
+   public double energy() {
+      return energy / capacity;
+   }
+   
+   // post: records the energy of the whole buffer and starts a new pass at
+   //       the current front, which must be index 0
+   private void startPass() {
+      energy = 0;
+      for (int i = 0; i < capacity; i++) {
+         energy += buffer[i] * buffer[i];
+      }
+      passEnergy = 0;
    }
 }
\ No newline at end of file
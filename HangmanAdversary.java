@@ -0,0 +1,327 @@
+// This program chooses word families for a game of evil hangman by looking
+// ahead at the guesses still to come, instead of simply keeping the largest
+// family. Each family the computer could keep is scored by a minimax search:
+// the guesser picks the letter that costs it the fewest wrong guesses in the
+// worst case, the computer answers with the family that costs the guesser the
+// most, and so on for a bounded number of guesses. The search deepens one
+// guess at a time until it reaches its depth or runs out of time, and the
+// families of the current guess are searched in parallel.
+//
+// Sets of words in the search are runs of word numbers in a scratch array
+// owned by the task searching them, so splitting a set by a letter allocates
+// nothing. The guesser only ever tries letters that split the set, since any
+// other letter tells it nothing; so the letters guessed so far are implied by
+// the set itself, and searched positions are remembered by a 64-bit hash of
+// the set and the depth searched. Each remembered cost also keeps a second
+// hash computed with other constants, which must match as well before the
+// cost is used, so a position is only mistaken for another if two
+// independent 64-bit hashes both collide.
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HangmanAdversary {
+   public static final int MAX_MEMO_SIZE = 1 << 20; // most positions remembered
+   private static final long KEY_FACTOR = 0x9E3779B97F4A7C15L;
+   private static final long CHECK_FACTOR = 0xC2B2AE3D27D4EB4FL;
+   private HangmanDictionary.Bucket bucket;
+   private int maxDepth;
+   private long timeLimit; // in nanoseconds
+   private ForkJoinPool pool;
+   private Map<Long, Known> memo; // guesser's cost of each searched position
+   private long deadline;
+   private volatile boolean expired;
+   private int lastDepth;
+
+   // bucket: Words of the game
+   // maxDepth: Most guesses to look ahead
+   // timeLimitMillis: Most time to spend choosing one family
+   // pre: bucket must exist, maxDepth must be positive and timeLimitMillis
+   //      nonnegative (throws IllegalArgumentException if not)
+   // post: constructs an adversary whose searches run in the common pool
+   public HangmanAdversary(HangmanDictionary.Bucket bucket, int maxDepth,
+         long timeLimitMillis) {
+      this(bucket, maxDepth, timeLimitMillis, ForkJoinPool.commonPool());
+   }
+
+   // bucket: Words of the game
+   // maxDepth: Most guesses to look ahead
+   // timeLimitMillis: Most time to spend choosing one family
+   // pool: Pool whose threads search the families
+   // pre: bucket and pool must exist, maxDepth must be positive and
+   //      timeLimitMillis nonnegative (throws IllegalArgumentException if not)
+   // post: constructs an adversary whose searches run in pool
+   public HangmanAdversary(HangmanDictionary.Bucket bucket, int maxDepth,
+         long timeLimitMillis, ForkJoinPool pool) {
+      if (bucket == null || pool == null || maxDepth < 1 || timeLimitMillis < 0) {
+         throw new IllegalArgumentException("bucket and pool must exist, maxDepth: "
+            + maxDepth + " timeLimitMillis: " + timeLimitMillis);
+      }
+      this.bucket = bucket;
+      this.maxDepth = maxDepth;
+      this.timeLimit = TimeUnit.MILLISECONDS.toNanos(timeLimitMillis);
+      this.pool = pool;
+   }
+
+   // candidates: Numbers of the words still being considered, in increasing
+   //             order
+   // guess: Letter just guessed
+   // pre: candidates must hold at least one word
+   //      (throws IllegalArgumentException if not)
+   // post: returns the mask of the positions of guess in the family to keep.
+   //       Depth 1 is always searched; deeper searches stop as soon as the
+   //       time limit, counted from the start of the call, has passed, and
+   //       each is used only if it finished within it. Ties go to the larger
+   //       family, then to the family whose pattern comes first
+   //       alphabetically.
+   public long chooseFamily(int[] candidates, char guess) {
+      if (candidates == null || candidates.length == 0) {
+         throw new IllegalArgumentException("no candidates");
+      }
+      deadline = System.nanoTime() + timeLimit;
+      expired = false;
+      Partition top = new Partition(candidates.length);
+      top.split(candidates, 0, candidates.length, guess);
+      lastDepth = 0;
+      if (top.count == 1) {
+         return top.masks[0];
+      }
+      memo = new ConcurrentHashMap<Long, Known>();
+      int best = 0;
+      for (int depth = 1; depth <= maxDepth; depth++) {
+         int[] costs = pool.invoke(new FamiliesTask(top, depth));
+         if (expired) {
+            break;
+         }
+         best = 0;
+         for (int f = 1; f < top.count; f++) {
+            if (better(top, costs, f, best)) {
+               best = f;
+            }
+         }
+         lastDepth = depth;
+      }
+      memo = null;
+      return top.masks[best];
+   }
+
+   // post: returns the depth of the search whose result the last call of
+   //       chooseFamily used, or 0 if there was only one family to keep
+   public int lastDepth() {
+      return lastDepth;
+   }
+
+   // post: returns true if family f of top is a better choice for the
+   //       computer than family best
+   private boolean better(Partition top, int[] costs, int f, int best) {
+      if (costs[f] != costs[best]) {
+         return costs[f] > costs[best];
+      }
+      int size = top.starts[f + 1] - top.starts[f];
+      int bestSize = top.starts[best + 1] - top.starts[best];
+      if (size != bestSize) {
+         return size > bestSize;
+      }
+      return displayOrder(top.masks[f]) < displayOrder(top.masks[best]);
+   }
+
+   // post: returns a number that orders masks in the same way as the patterns
+   //       they display, where the first position is the most significant
+   private long displayOrder(long mask) {
+      return Long.reverse(mask) >>> (64 - bucket.length());
+   }
+
+   // post: returns whether the time limit of the current search has passed,
+   //       marking the search expired once it has
+   private boolean timeUp() {
+      if (!expired && System.nanoTime() - deadline > 0) {
+         expired = true;
+      }
+      return expired;
+   }
+
+   // factor: Odd multiplier that mixes in each word, such as KEY_FACTOR
+   // post: returns a hash of the words from start to end of words and depth;
+   //       hashes with different factors are independent of one another
+   private static long key(int[] words, int start, int end, int depth, long factor) {
+      long hash = depth;
+      for (int i = start; i < end; i++) {
+         hash = (hash ^ words[i]) * factor;
+         hash ^= hash >>> 29;
+      }
+      return hash ^ ((long) (end - start) << 40);
+   }
+
+   // This class holds the cost of a searched position with a second hash of
+   // the position, to tell it from another position with the same key
+   private static class Known {
+      public long check;
+      public int cost;
+
+      // check: Hash of the position with CHECK_FACTOR
+      // cost: Guesser's cost of the position
+      public Known(long check, int cost) {
+         this.check = check;
+         this.cost = cost;
+      }
+   }
+
+   // This class splits a run of words into families by the positions of a
+   // letter, keeping each family's words together in their original order
+   private class Partition {
+      public int[] words; // words of each family, family by family
+      public int[] starts; // family f runs from starts[f] to starts[f + 1]
+      public long[] masks; // positions of the letter in each family
+      public int count; // number of families
+      private int[] families; // family of each word split
+      private LongIntMap numbers; // number of the family with each mask
+
+      // capacity: Most words split at once
+      public Partition(int capacity) {
+         words = new int[capacity];
+         starts = new int[capacity + 1];
+         masks = new long[capacity];
+         families = new int[capacity];
+         numbers = new LongIntMap();
+      }
+
+      // post: splits the words from start to end of source by the positions
+      //       of letter
+      public void split(int[] source, int start, int end, char letter) {
+         numbers.clear();
+         count = 0;
+         for (int i = start; i < end; i++) {
+            long mask = bucket.maskOf(source[i], letter);
+            int family = numbers.get(mask, -1);
+            if (family < 0) {
+               family = count++;
+               numbers.put(mask, family);
+               masks[family] = mask;
+               starts[family + 1] = 0;
+            }
+            families[i - start] = family;
+            starts[family + 1]++;
+         }
+         starts[0] = 0;
+         for (int f = 1; f <= count; f++) {
+            starts[f] += starts[f - 1];
+         }
+         for (int i = start; i < end; i++) {
+            words[starts[families[i - start]]++] = source[i];
+         }
+         for (int f = count; f > 0; f--) {
+            starts[f] = starts[f - 1];
+         }
+         starts[0] = 0;
+      }
+   }
+
+   // This class searches every family of the current guess to a given depth,
+   // forking a task for each family that has more than one word
+   private class FamiliesTask extends RecursiveTask<int[]> {
+      private static final long serialVersionUID = 1L;
+      private Partition top;
+      private int depth;
+
+      // top: Families of the current guess
+      // depth: Number of guesses to look ahead, counting the current one
+      public FamiliesTask(Partition top, int depth) {
+         this.top = top;
+         this.depth = depth;
+      }
+
+      // post: returns the guesser's cost of each family, counting the
+      //       current guess
+      protected int[] compute() {
+         int[] costs = new int[top.count];
+         List<SearchTask> searches = new ArrayList<SearchTask>();
+         for (int f = 0; f < top.count; f++) {
+            costs[f] = (top.masks[f] == 0) ? 1 : 0;
+            if (top.starts[f + 1] - top.starts[f] > 1 && depth > 1 && !timeUp()) {
+               SearchTask search = new SearchTask(Arrays.copyOfRange(top.words,
+                  top.starts[f], top.starts[f + 1]), depth - 1);
+               search.fork();
+               searches.add(search);
+            } else {
+               searches.add(null);
+            }
+         }
+         for (int f = 0; f < top.count; f++) {
+            if (searches.get(f) != null) {
+               costs[f] += searches.get(f).join();
+            }
+         }
+         return costs;
+      }
+   }
+
+   // This class searches the guesses below one family. It keeps a Partition
+   // for each level of its search, so that the words of every family being
+   // searched stay in place while the families below them are split.
+   private class SearchTask extends RecursiveTask<Integer> {
+      private static final long serialVersionUID = 1L;
+      private int[] words;
+      private int depth;
+      private Partition[] levels;
+
+      // words: Words of the family, in increasing order
+      // depth: Number of guesses to look ahead
+      public SearchTask(int[] words, int depth) {
+         this.words = words;
+         this.depth = depth;
+      }
+
+      // post: returns the fewest wrong guesses the guesser can be sure of
+      //       within depth guesses
+      protected Integer compute() {
+         if (timeUp()) {
+            return 0;
+         }
+         levels = new Partition[depth + 1];
+         for (int level = 1; level <= depth; level++) {
+            levels[level] = new Partition(words.length);
+         }
+         return cost(words, 0, words.length, depth);
+      }
+
+      // post: returns the fewest wrong guesses the guesser can be sure of
+      //       within depth guesses, starting from the words from start to end
+      //       of words. Returns 0 once the time limit has passed.
+      private int cost(int[] words, int start, int end, int depth) {
+         if (depth == 0 || end - start <= 1) {
+            return 0;
+         } else if (timeUp()) {
+            return 0;
+         }
+         Long key = key(words, start, end, depth, KEY_FACTOR);
+         long check = key(words, start, end, depth, CHECK_FACTOR);
+         Known known = memo.get(key);
+         if (known != null && known.check == check) {
+            return known.cost;
+         }
+         Partition families = levels[depth];
+         int best = Integer.MAX_VALUE;
+         for (int letter = 0; letter < bucket.letterCount() && best > 0 && !timeUp();
+               letter++) {
+            families.split(words, start, end, bucket.letter(letter));
+            if (families.count > 1) {
+               int worst = 0;
+               for (int f = 0; f < families.count && worst < best && !expired; f++) {
+                  int cost = (families.masks[f] == 0) ? 1 : 0;
+                  cost += cost(families.words, families.starts[f],
+                     families.starts[f + 1], depth - 1);
+                  worst = Math.max(worst, cost);
+               }
+               best = Math.min(best, worst);
+            }
+         }
+         if (best == Integer.MAX_VALUE) { // every word is the same to the guesser
+            best = 0;
+         }
+         if (!expired && memo.size() < MAX_MEMO_SIZE) {
+            memo.put(key, new Known(check, best));
+         }
+         return best;
+      }
+   }
+}
@@ -0,0 +1,108 @@
+// This program measures how long HangmanManager takes to answer each guess
+// when it keeps the largest family and when it looks ahead with
+// HangmanAdversary. Both play the same simulated games against a guesser that
+// picks, at random, one of the letters found in the most remaining words. It
+// reports the time taken by each guess and how many wrong guesses the guesser
+// made under each strategy.
+//
+// usage: java HangmanBenchmark <dictionary file> [length] [depth] [millis] [games]
+
+import java.io.*;
+import java.util.*;
+
+public class HangmanBenchmark {
+   public static final int DEFAULT_LENGTH = 6;
+   public static final int DEFAULT_DEPTH = 3;
+   public static final int DEFAULT_MILLIS = 200;
+   public static final int DEFAULT_GAMES = 20;
+   public static final int MAX_WRONG = 26; // every game is played to the end
+   public static final int CHOICES = 3; // guesser picks among this many best letters
+
+   public static void main(String[] args) throws FileNotFoundException {
+      if (args.length < 1) {
+         System.out.println("usage: java HangmanBenchmark <dictionary file> [length] "
+            + "[depth] [millis] [games]");
+         return;
+      }
+      List<String> words = new ArrayList<String>();
+      Scanner input = new Scanner(new File(args[0]));
+      while (input.hasNext()) {
+         words.add(input.next().toLowerCase());
+      }
+      int length = (args.length > 1) ? Integer.parseInt(args[1]) : DEFAULT_LENGTH;
+      int depth = (args.length > 2) ? Integer.parseInt(args[2]) : DEFAULT_DEPTH;
+      int millis = (args.length > 3) ? Integer.parseInt(args[3]) : DEFAULT_MILLIS;
+      int games = (args.length > 4) ? Integer.parseInt(args[4]) : DEFAULT_GAMES;
+      HangmanDictionary dictionary = new HangmanDictionary(words, length);
+      System.out.println(dictionary.bucket(length).size() + " words of length " + length
+         + ", lookahead depth " + depth + ", " + millis + " ms per guess");
+      System.out.printf("%-10s %8s %10s %10s %10s %10s %10s%n", "strategy", "guesses",
+         "mean ms", "p50 ms", "p99 ms", "max ms", "wrong");
+      play("greedy", dictionary, length, 0, millis, games);
+      play("lookahead", dictionary, length, depth, millis, games);
+   }
+
+   // post: plays games with the given lookahead (0 for greedy) and prints the
+   //       time taken by each guess and the average number of wrong guesses
+   private static void play(String name, HangmanDictionary dictionary, int length,
+         int depth, int millis, int games) {
+      List<Long> times = new ArrayList<Long>();
+      int wrong = 0;
+      for (int game = 0; game < games; game++) {
+         Random random = new Random(game);
+         HangmanManager manager = new HangmanManager(dictionary, length, MAX_WRONG);
+         manager.setLookahead(depth, millis);
+         while (manager.guessesLeft() > 0 && manager.pattern().indexOf('-') >= 0) {
+            char guess = chooseGuess(manager, random);
+            long start = System.nanoTime();
+            if (manager.record(guess) == 0) {
+               wrong++;
+            }
+            times.add(System.nanoTime() - start);
+         }
+      }
+      Collections.sort(times);
+      long total = 0;
+      for (long time : times) {
+         total += time;
+      }
+      System.out.printf("%-10s %8d %10.3f %10.3f %10.3f %10.3f %10.2f%n", name, times.size(),
+         total / 1e6 / times.size(), percentile(times, 0.5) / 1e6,
+         percentile(times, 0.99) / 1e6, times.get(times.size() - 1) / 1e6,
+         (double) wrong / games);
+   }
+
+   // post: returns one of the CHOICES unguessed letters found in the most
+   //       remaining words, chosen at random
+   private static char chooseGuess(HangmanManager manager, Random random) {
+      int[] counts = new int[26];
+      for (String word : manager.words()) {
+         boolean[] seen = new boolean[26];
+         for (int i = 0; i < word.length(); i++) {
+            int letter = word.charAt(i) - 'a';
+            if (letter >= 0 && letter < 26 && !seen[letter]) {
+               seen[letter] = true;
+               counts[letter]++;
+            }
+         }
+      }
+      List<Character> letters = new ArrayList<Character>();
+      for (char letter = 'a'; letter <= 'z'; letter++) {
+         if (!manager.guesses().contains(letter)) {
+            letters.add(letter);
+         }
+      }
+      Collections.sort(letters, new Comparator<Character>() {
+         public int compare(Character a, Character b) {
+            return counts[b - 'a'] - counts[a - 'a'];
+         }
+      });
+      return letters.get(random.nextInt(Math.min(CHOICES, letters.size())));
+   }
+
+   // post: returns the value at the given fraction of the sorted times
+   private static long percentile(List<Long> times, double fraction) {
+      int index = (int) Math.ceil(fraction * times.size()) - 1;
+      return times.get(Math.max(0, index));
+   }
+}
@@ -0,0 +1,209 @@
+// This program indexes a dictionary for games of hangman. Words are grouped
+// into buckets by length, and each bucket records, for every position and
+// letter, the set of its words with that letter at that position. Sets of
+// words are bitsets over the words of a bucket in alphabetical order, so a
+// game can keep track of its remaining words in a few bits per word and can
+// split them by the positions of a letter a whole long at a time. A
+// dictionary never changes once built, so one dictionary can be shared by
+// any number of games running at once.
+
+import java.util.*;
+
+public class HangmanDictionary {
+   public static final int MAX_LENGTH = 63; // positions must fit in a long mask
+   private Bucket[] buckets;
+
+   // dictionary: Given collection of words
+   // pre: dictionary must exist (throws IllegalArgumentException if not)
+   // post: indexes every word of the dictionary of at most MAX_LENGTH letters
+   public HangmanDictionary(Collection<String> dictionary) {
+      this(dictionary, 1, MAX_LENGTH);
+   }
+
+   // dictionary: Given collection of words
+   // length: Length of the words to index
+   // pre: dictionary must exist and 1 <= length <= MAX_LENGTH
+   //      (throws IllegalArgumentException if not)
+   // post: indexes only the words of the dictionary of the given length
+   public HangmanDictionary(Collection<String> dictionary, int length) {
+      this(dictionary, length, length);
+   }
+
+   // post: indexes the words of the dictionary from minLength to maxLength
+   //       letters long
+   private HangmanDictionary(Collection<String> dictionary, int minLength, int maxLength) {
+      if (dictionary == null || minLength < 1 || maxLength > MAX_LENGTH) {
+         throw new IllegalArgumentException("dictionary must exist and lengths must be "
+            + "from 1 to " + MAX_LENGTH);
+      }
+      List<SortedSet<String>> byLength = new ArrayList<SortedSet<String>>();
+      for (int length = 0; length <= MAX_LENGTH; length++) {
+         byLength.add(new TreeSet<String>());
+      }
+      for (String word : dictionary) {
+         if (word.length() >= minLength && word.length() <= maxLength) {
+            byLength.get(word.length()).add(word);
+         }
+      }
+      buckets = new Bucket[MAX_LENGTH + 1];
+      for (int length = 1; length <= MAX_LENGTH; length++) {
+         buckets[length] = new Bucket(length, byLength.get(length));
+      }
+   }
+
+   // length: Given word length
+   // pre: 1 <= length <= MAX_LENGTH (throws IllegalArgumentException if not)
+   // post: returns the bucket of the words of the given length, which is
+   //       empty if there are none
+   public Bucket bucket(int length) {
+      if (length < 1 || length > MAX_LENGTH) {
+         throw new IllegalArgumentException("length: " + length);
+      }
+      return buckets[length];
+   }
+
+   // This class holds the words of one length and the sets of them that have
+   // each letter at each position
+   public static class Bucket {
+      private int length;
+      private String[] words; // in alphabetical order
+      private char[] letters; // letter i of word w is at w * length + i
+      private IntIntMap letterIndex; // number of each letter used by the words
+      private char[] alphabet; // letter with each number
+      private int letterCount;
+      private int setLength; // number of longs in a set of words
+      private long[] allWords;
+      private long[] letterSets; // words that contain each letter
+      private long[] positionSets; // words with each letter at each position
+
+      // length: Length of every word
+      // sameLength: Given words, in alphabetical order
+      // post: constructs a bucket of the words and their letter sets
+      public Bucket(int length, SortedSet<String> sameLength) {
+         this.length = length;
+         words = sameLength.toArray(new String[sameLength.size()]);
+         letters = new char[words.length * length];
+         letterIndex = new IntIntMap();
+         for (int w = 0; w < words.length; w++) {
+            words[w].getChars(0, length, letters, w * length);
+         }
+         StringBuilder used = new StringBuilder();
+         for (char letter : letters) {
+            if (letterIndex.get(letter, -1) < 0) {
+               letterIndex.put(letter, letterCount++);
+               used.append(letter);
+            }
+         }
+         alphabet = used.toString().toCharArray();
+         setLength = (words.length + 63) / 64;
+         allWords = new long[setLength];
+         letterSets = new long[letterCount * setLength];
+         positionSets = new long[length * letterCount * setLength];
+         for (int w = 0; w < words.length; w++) {
+            long bit = 1L << (w % 64);
+            int word = w / 64;
+            allWords[word] |= bit;
+            for (int i = 0; i < length; i++) {
+               int letter = letterIndex.get(letters[w * length + i], -1);
+               letterSets[letter * setLength + word] |= bit;
+               positionSets[(i * letterCount + letter) * setLength + word] |= bit;
+            }
+         }
+      }
+
+      // post: returns the length of the words
+      public int length() {
+         return length;
+      }
+
+      // post: returns the number of words
+      public int size() {
+         return words.length;
+      }
+
+      // index: Given position of a word in alphabetical order
+      // post: returns the word at index
+      public String word(int index) {
+         return words[index];
+      }
+
+      // post: returns a new set holding every word
+      public long[] allWords() {
+         return allWords.clone();
+      }
+
+      // post: returns the number of longs in a set of words
+      public int setLength() {
+         return setLength;
+      }
+
+      // post: returns the number of different letters used by the words
+      public int letterCount() {
+         return letterCount;
+      }
+
+      // index: Number of a letter, from 0 to letterCount() - 1
+      // post: returns the letter with that number
+      public char letter(int index) {
+         return alphabet[index];
+      }
+
+      // letter: Given letter
+      // post: returns the number this bucket gives letter, or -1 if no word
+      //       contains letter
+      public int letterIndex(char letter) {
+         return letterIndex.get(letter, -1);
+      }
+
+      // word: Given position of a word
+      // letter: Given letter
+      // post: returns a mask with bit i set for each position i of the word
+      //       that holds letter
+      public long maskOf(int word, char letter) {
+         long mask = 0;
+         int start = word * length;
+         for (int i = 0; i < length; i++) {
+            if (letters[start + i] == letter) {
+               mask |= 1L << i;
+            }
+         }
+         return mask;
+      }
+
+      // letter: Number of a letter from letterIndex
+      // words: Given set of words
+      // result: Set that receives the words of words that contain letter
+      // post: fills result and returns the number of words in it
+      public int containing(int letter, long[] words, long[] result) {
+         int count = 0;
+         int start = letter * setLength;
+         for (int i = 0; i < setLength; i++) {
+            result[i] = words[i] & letterSets[start + i];
+            count += Long.bitCount(result[i]);
+         }
+         return count;
+      }
+
+      // letter: Number of a letter from letterIndex
+      // mask: Positions at which the kept words hold letter
+      // words: Given set of words
+      // post: removes from words every word that does not hold letter at
+      //       exactly the positions in mask
+      public void keep(int letter, long mask, long[] words) {
+         if (mask == 0) {
+            int start = letter * setLength;
+            for (int i = 0; i < setLength; i++) {
+               words[i] &= ~letterSets[start + i];
+            }
+            return;
+         }
+         for (int position = 0; position < length; position++) {
+            int start = (position * letterCount + letter) * setLength;
+            long flip = ((mask >>> position) & 1) - 1; // all ones when letter is absent
+            for (int i = 0; i < setLength; i++) {
+               words[i] &= positionSets[start + i] ^ flip;
+            }
+         }
+      }
+   }
+}
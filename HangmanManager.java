@@ -1,41 +1,86 @@
 // This program manages a game of evil hangman. The computer delays picking
 // a word until it has to. The game continues until the user is out of guesses
-// or the user gets the word.
+// or the user gets the word. Words come from a HangmanDictionary, which many
+// games can share.
 
 import java.util.*;
 
 public class HangmanManager {
+   public static final int MAX_LENGTH = HangmanDictionary.MAX_LENGTH;
    private int guesses;
-   private String pattern;
-   private Set<String> validWords;
+   private Pattern pattern;
    private SortedSet<Character> lettersGuessed;
+   private int length;
+   private HangmanDictionary.Bucket bucket; // every dictionary word of the length
+   private long[] candidates; // words still being considered, or null for all
+   private int candidateCount;
+   private long[] withGuess; // candidates that contain the guessed letter
+   private LongIntMap familySizes; // number of candidates with each mask
+   private Set<String> validWords; // built the first time words() is called
+   private HangmanAdversary adversary; // null to always keep the largest family
    
    // dictionary refers to the original set of all words
    // length refers to the length of the desired words
    // max refers to the max wrong guesses the user can make
-   // pre: length must be greater than zero, max must be nonnegative
-   //      (throws IllegalArgumentException if not)
+   // pre: length must be greater than zero and at most MAX_LENGTH, max must
+   //      be nonnegative (throws IllegalArgumentException if not)
    // post: creates a collection of dictionary words of the specified length
    public HangmanManager(Collection<String> dictionary, int length, int max) {
-      if (length < 1 || max < 0) {
+      this(new HangmanDictionary(dictionary, checkLength(length)), length, max);
+   }
+   
+   // dictionary refers to a shared index of all words
+   // length refers to the length of the desired words
+   // max refers to the max wrong guesses the user can make
+   // pre: dictionary must exist, length must be greater than zero and at most
+   //      MAX_LENGTH, max must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: starts a game over the dictionary words of the specified length
+   //       without copying them
+   public HangmanManager(HangmanDictionary dictionary, int length, int max) {
+      if (dictionary == null || length < 1 || length > MAX_LENGTH || max < 0) {
          throw new IllegalArgumentException("length: " + length + " max: " + max);
       }
       guesses = max;
-      pattern = "";
-      for (int i = 0; i < length; i++) {
-         pattern += " -";
-      }
-      validWords = new TreeSet<String>();
-      for (String s : dictionary) {
-         if (s.length() == length) {
-            validWords.add(s);
-         }
-      }
+      pattern = new Pattern(length);
+      this.length = length;
+      bucket = dictionary.bucket(length);
+      candidateCount = bucket.size();
+      familySizes = new LongIntMap();
       lettersGuessed = new TreeSet<Character>();
    }
    
+   // maxDepth refers to the number of guesses to look ahead, or 0 to always
+   //          keep the largest family
+   // timeLimitMillis refers to the most time to spend choosing a family
+   // pre: maxDepth and timeLimitMillis must be nonnegative
+   //      (throws IllegalArgumentException if not)
+   // post: makes the computer keep the family that a minimax search of the
+   //       next maxDepth guesses says will cost the user the most wrong
+   //       guesses, searching one guess deeper at a time until maxDepth or
+   //       the time limit is reached
+   public void setLookahead(int maxDepth, long timeLimitMillis) {
+      if (maxDepth < 0 || timeLimitMillis < 0) {
+         throw new IllegalArgumentException("maxDepth: " + maxDepth 
+            + " timeLimitMillis: " + timeLimitMillis);
+      }
+      adversary = null;
+      if (maxDepth > 0) {
+         adversary = new HangmanAdversary(bucket, maxDepth, timeLimitMillis);
+      }
+   }
+   
    // post: returns current set of words being considered
    public Set<String> words() {
+      if (validWords == null) {
+         validWords = new TreeSet<String>();
+         long[] words = (candidates == null) ? bucket.allWords() : candidates;
+         for (int i = 0; i < words.length; i++) {
+            for (long bits = words[i]; bits != 0; bits &= bits - 1) {
+               validWords.add(bucket.word(i * 64 + Long.numberOfTrailingZeros(bits)));
+            }
+         }
+      }
       return validWords;
    }
    
@@ -54,11 +99,11 @@ public class HangmanManager {
    // post: returns the current pattern to be displayed
    //       (pattern will contain dashes for letters not yet guessed)
    public String pattern() {
-      if (validWords.isEmpty()) {
+      if (candidateCount == 0) {
          throw new IllegalStateException("Number of words in set: " 
-            + validWords.size());
+            + candidateCount);
       }
-      return pattern.trim();
+      return pattern.toString();
    }
    
    // pre: the user must have at least one guess remaining and the set of 
@@ -70,86 +115,140 @@ public class HangmanManager {
    // post: returns the frequency of the guessed letter in the word
    //       updates the user's guess count
    public int record(char guess) {
-      if (guesses < 1 || validWords.isEmpty()) {
+      if (guesses < 1 || candidateCount == 0) {
          throw new IllegalStateException("Guesses left: " + guesses 
-            + " Number of words in set: " + validWords.size());
-      } else if (!validWords.isEmpty() && lettersGuessed.contains(guess)) {
+            + " Number of words in set: " + candidateCount);
+      } else if (lettersGuessed.contains(guess)) {
          throw new IllegalArgumentException("You have already guessed " + guess);
       }
-      Map<String, SortedSet<String>> groupings 
-         = new TreeMap <String, SortedSet<String>>();
-      createPatterns(guess, groupings);
-      return findNextSet(guess, groupings);
+      long largestGroupMask = createPatterns(guess);
+      if (adversary != null && familySizes.size() > 1) {
+         largestGroupMask = adversary.chooseFamily(candidateList(), guess);
+      }
+      return findNextSet(guess, largestGroupMask);
+   }
+   
+   // post: returns the numbers of the candidates in increasing order
+   private int[] candidateList() {
+      int[] list = new int[candidateCount];
+      int count = 0;
+      for (int i = 0; i < candidates.length; i++) {
+         for (long bits = candidates[i]; bits != 0; bits &= bits - 1) {
+            list[count++] = i * 64 + Long.numberOfTrailingZeros(bits);
+         }
+      }
+      return list;
    }
    
    // pre: guess refers to the user's guessed letter.
-   //      groupings maps the pattern of an individual word to all words
-   //      with that pattern.
-   // post: creates groups of words with the same patterns 
-   private void createPatterns(char guess, Map<String, SortedSet<String>> groupings) {
-      for (String word : validWords) {
-         String oneWordPattern = "";
-         for (int i = 0; i < word.length(); i++) {
-            if (word.charAt(i) == guess) {
-               oneWordPattern += " " + guess;
-            } else {
-               oneWordPattern += " -";
+   // post: counts in familySizes the candidates with each mask of positions
+   //       of guess, where bit i is set when position i holds guess, and
+   //       returns the mask shared by the most candidates. Ties go to the
+   //       family whose displayed pattern comes first alphabetically, as '-'
+   //       comes before any letter.
+   private long createPatterns(char guess) {
+      familySizes.clear();
+      int letter = bucket.letterIndex(guess);
+      if (letter < 0) { // no candidate contains guess
+         familySizes.put(0, candidateCount);
+         return 0;
+      }
+      if (candidates == null) {
+         candidates = bucket.allWords();
+         withGuess = new long[candidates.length];
+      }
+      long largestGroupMask = 0;
+      int largestGroup = candidateCount - bucket.containing(letter, candidates, withGuess);
+      familySizes.put(0, largestGroup);
+      for (int i = 0; i < withGuess.length; i++) {
+         for (long bits = withGuess[i]; bits != 0; bits &= bits - 1) {
+            long mask = bucket.maskOf(i * 64 + Long.numberOfTrailingZeros(bits), guess);
+            int size = familySizes.get(mask, 0) + 1;
+            familySizes.put(mask, size);
+            if (size > largestGroup || (size == largestGroup
+                  && displayOrder(mask) < displayOrder(largestGroupMask))) {
+               largestGroup = size;
+               largestGroupMask = mask;
             }
          }
-         oneWordPattern.trim();
-         if (!groupings.containsKey(oneWordPattern)) {
-            groupings.put(oneWordPattern, new TreeSet<String>());
-         }
-         groupings.get(oneWordPattern).add(word);
       }
+      return largestGroupMask;
    }
    
    // pre: guess refers to the user's guessed letter.
-   //      groupings maps the pattern of an individual word to all words
-   //      with that pattern.
+   //      largestGroupMask is the mask of the family to keep.
    // post: returns the count of the guessed letter in the chosen word.
    //       chooses the next set of words for the game
-   private int findNextSet(char guess, Map<String, SortedSet<String>> groupings) {
+   private int findNextSet(char guess, long largestGroupMask) {
       lettersGuessed.add(guess);
-      int largestGroup = 0;
-      String largestGroupPattern = "";
-      for (String tempPattern : groupings.keySet()) {
-         if (groupings.get(tempPattern).size() > largestGroup) {
-            largestGroup = groupings.get(tempPattern).size();
-            largestGroupPattern = tempPattern;
-            validWords = groupings.get(tempPattern);
-         }
+      int letter = bucket.letterIndex(guess);
+      if (letter >= 0) {
+         bucket.keep(letter, largestGroupMask, candidates);
+         candidateCount = familySizes.get(largestGroupMask, 0);
+         validWords = null;
       }
-      pattern = updatePattern(largestGroupPattern, pattern);
-      int count = 0;
-      for (int i = 0; i < largestGroupPattern.length(); i++) {
-         if (largestGroupPattern.charAt(i) == guess) {
-            count++;
-         }
+      if (largestGroupMask != 0) {
+         pattern.reveal(guess, largestGroupMask);
+         guesses++;
       }
-      return count;
+      return Long.bitCount(largestGroupMask);
    }
    
-   // pre: pattern refers to the previous word pattern.
-   //      largestGroupPattern refers to the new pattern of the 
-   //      guessed letters in the words.
-   // post: returns an update of the previous pattern and the 
-   //       pattern of the guessed letter in the word
-   private String updatePattern(String largestGroupPattern, String pattern) {
-      boolean letterWasGuessed = false;
-      String tempPattern = "";
-      for (int i = 0; i < pattern.length(); i++) {
-         if (pattern.charAt(i) != largestGroupPattern.charAt(i) 
-               && largestGroupPattern.charAt(i) != '-') {
-            tempPattern += largestGroupPattern.charAt(i);
-            letterWasGuessed = true;
-         } else {
-            tempPattern += pattern.charAt(i);
+   // pre: length must be greater than zero and at most MAX_LENGTH
+   //      (throws IllegalArgumentException if not)
+   // post: returns length
+   private static int checkLength(int length) {
+      if (length < 1 || length > MAX_LENGTH) {
+         throw new IllegalArgumentException("length: " + length);
+      }
+      return length;
+   }
+   
+   // post: returns a number that orders masks in the same way as the patterns
+   //       they display, where the first position is the most significant
+   private long displayOrder(long mask) {
+      return Long.reverse(mask) >>> (64 - length);
+   }
+   
+   // This class holds the letters revealed so far, one per position, and the
+   // mask of the positions they are at. The displayed string is only built
+   // when it is asked for, and is kept until another letter is revealed.
+   private static class Pattern {
+      private char[] letters; // letter at each revealed position
+      private long revealed; // bit i is set when position i is revealed
+      private String display; // null until asked for
+      
+      // length refers to the number of positions
+      // post: constructs a pattern with every position hidden
+      public Pattern(int length) {
+         letters = new char[length];
+      }
+      
+      // guess refers to the letter to reveal
+      // mask refers to the positions that hold guess
+      // post: reveals guess at each position in mask
+      public void reveal(char guess, long mask) {
+         revealed |= mask;
+         for (long bits = mask; bits != 0; bits &= bits - 1) {
+            letters[Long.numberOfTrailingZeros(bits)] = guess;
          }
+         display = null;
       }
-      if (letterWasGuessed) {
-         guesses++;
+      
+      // post: returns the letters separated by spaces, with dashes for the
+      //       hidden positions
+      public String toString() {
+         if (display == null) {
+            StringBuilder result = new StringBuilder(2 * letters.length);
+            for (int i = 0; i < letters.length; i++) {
+               if (i > 0) {
+                  result.append(' ');
+               }
+               result.append(((revealed >>> i) & 1) != 0 ? letters[i] : '-');
+            }
+            display = result.toString();
+         }
+         return display;
       }
-      return tempPattern;
    }
 }
\ No newline at end of file
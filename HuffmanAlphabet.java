@@ -0,0 +1,23 @@
+// Interface HuffmanAlphabet describes how a stream of bytes is split into the
+// symbols that a HuffmanTree codes, and how the symbols are turned back into
+// bytes. Symbols are numbered from 0 to size() - 1, and size() itself is the
+// end of file symbol. Tokenizers such as an LZ77 coder with literal and
+// length symbols can implement it to be coded by a HuffmanTree.
+
+import java.io.*;
+
+public interface HuffmanAlphabet {
+
+   // post: returns the number of symbols, which is also the end of file symbol
+   public int size();
+
+   // input: Stream from which the symbol is read
+   // post: returns the next symbol of input, from 0 to size() - 1, or -1 if
+   //       input has no more symbols
+   public int read(InputStream input) throws IOException;
+
+   // symbol: Given symbol, from 0 to size() - 1
+   // output: Stream to which the bytes of symbol are written
+   // post: writes the bytes that read turns into symbol
+   public void write(int symbol, OutputStream output) throws IOException;
+}
@@ -0,0 +1,271 @@
+// This program compares the decoding throughput of the bit-at-a-time
+// HuffmanTree decoder with the table-driven decoder. It writes a file of
+// randomly generated, skewed characters, compresses it with HuffmanTree,
+// decodes it both ways and checks that both produce the original bytes. It
+// also compares the size of the text code file with the canonical header,
+// and how much compression is lost by limiting the length of the codes. On
+// Fibonacci counts, whose unbounded codes run to 50 bits, it checks that
+// each limited code stays within its limit, satisfies Kraft's inequality and
+// is at most MAX_LIMIT_LOSS larger than the unbounded code.
+// Finally it times HuffmanBlockCodec, which splits the file into blocks that
+// are compressed and decompressed in parallel, HuffmanFiles, which codes
+// memory-mapped files through FileChannels, and the streams that compress
+// in segments without counting the whole input first.
+//
+// usage: java HuffmanBenchmark [megabytes] [seed]
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class HuffmanBenchmark {
+   public static final int DEFAULT_MEGABYTES = 256;
+   public static final int BUFFER_SIZE = 1 << 16;
+   public static final int[] LENGTH_LIMITS = {15, 12, 10}; // longest codes to compare
+   public static final int SKEWED_CHARACTERS = 50; // characters with Fibonacci counts
+   public static final double MAX_LIMIT_LOSS = 0.01; // most limiting may cost them
+
+   public static void main(String[] args) throws IOException {
+      int megabytes = (args.length > 0) ? Integer.parseInt(args[0]) : DEFAULT_MEGABYTES;
+      long seed = (args.length > 1) ? Long.parseLong(args[1]) : 42;
+      File original = File.createTempFile("huffman", ".txt");
+      File compressed = File.createTempFile("huffman", ".short");
+      original.deleteOnExit();
+      compressed.deleteOnExit();
+
+      int[] counts = new int[HuffmanTree.CHAR_MAX];
+      long expected = writeInput(original, (long) megabytes << 20, new Random(seed), counts);
+      HuffmanTree tree = new HuffmanTree(counts);
+      InputStream input = new BufferedInputStream(new FileInputStream(original), BUFFER_SIZE);
+      OutputStream output = new BufferedOutputStream(new FileOutputStream(compressed),
+         BUFFER_SIZE);
+      tree.encode(input, output, HuffmanTree.CHAR_MAX);
+      input.close();
+      output.close();
+      System.out.printf("%d MB compressed to %.1f MB%n", megabytes,
+         compressed.length() / (double) (1 << 20));
+
+      ByteArrayOutputStream text = new ByteArrayOutputStream();
+      PrintStream textOutput = new PrintStream(text);
+      tree.write(textOutput);
+      textOutput.flush();
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      new HuffmanTree(counts, true).writeHeader(header);
+      System.out.printf("code file %d bytes as text, %d bytes as canonical header%n",
+         text.size(), header.size());
+
+      ChecksumStream walked = new ChecksumStream();
+      long start = System.nanoTime();
+      BitInputStream bits = new BitInputStream(compressed.getPath());
+      tree.decode(bits, new PrintStream(walked), HuffmanTree.CHAR_MAX);
+      bits.close();
+      report("bit at a time", megabytes, start, walked, expected);
+
+      ChecksumStream table = new ChecksumStream();
+      start = System.nanoTime();
+      input = new FileInputStream(compressed);
+      tree.decode(input, table, HuffmanTree.CHAR_MAX);
+      input.close();
+      report("table driven", megabytes, start, table, expected);
+      
+      long[] longCounts = new long[HuffmanTree.CHAR_MAX];
+      for (int i = 0; i < HuffmanTree.CHAR_MAX; i++) {
+         longCounts[i] = counts[i];
+      }
+      long unbounded = encodedBits(tree, longCounts);
+      System.out.printf("unbounded codes up to %d bits%n", longestCode(tree));
+      for (int maxLength : LENGTH_LIMITS) {
+         HuffmanTree limited = new HuffmanTree(longCounts, maxLength);
+         long limitedBits = encodedBits(limited, longCounts);
+         System.out.printf("codes limited to %d bits: %.4f%% larger%n", maxLength,
+            100.0 * (limitedBits - unbounded) / unbounded);
+      }
+      checkLimitedCodes();
+      
+      HuffmanTree limited = new HuffmanTree(longCounts, LENGTH_LIMITS[0]);
+      input = new BufferedInputStream(new FileInputStream(original), BUFFER_SIZE);
+      output = new BufferedOutputStream(new FileOutputStream(compressed), BUFFER_SIZE);
+      limited.encode(input, output, HuffmanTree.CHAR_MAX);
+      input.close();
+      output.close();
+      ChecksumStream limitedTable = new ChecksumStream();
+      start = System.nanoTime();
+      input = new FileInputStream(compressed);
+      limited.decode(input, limitedTable, HuffmanTree.CHAR_MAX);
+      input.close();
+      report("table, limited", megabytes, start, limitedTable, expected);
+      
+      File blocks = File.createTempFile("huffman", ".blocks");
+      File restored = File.createTempFile("huffman", ".out");
+      blocks.deleteOnExit();
+      restored.deleteOnExit();
+      HuffmanBlockCodec codec = new HuffmanBlockCodec();
+      start = System.nanoTime();
+      codec.compress(original, blocks);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-14s %8.2f s %8.1f MB/s, %d blocks, %.1f MB%n", "block encode",
+         seconds, megabytes / seconds, HuffmanBlockCodec.blockCount(blocks),
+         blocks.length() / (double) (1 << 20));
+      start = System.nanoTime();
+      codec.decompress(blocks, restored);
+      report("block decode", megabytes, start, checksum(restored), expected);
+      
+      HuffmanFiles files = new HuffmanFiles();
+      start = System.nanoTime();
+      files.compress(original, compressed);
+      seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-14s %8.2f s %8.1f MB/s%n", "mapped encode", seconds,
+         megabytes / seconds);
+      start = System.nanoTime();
+      files.decompress(compressed, restored);
+      report("mapped decode", megabytes, start, checksum(restored), expected);
+      
+      start = System.nanoTime();
+      input = new FileInputStream(original);
+      output = new HuffmanOutputStream(new BufferedOutputStream(
+         new FileOutputStream(compressed), BUFFER_SIZE));
+      copy(input, output);
+      input.close();
+      output.close();
+      seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("%-14s %8.2f s %8.1f MB/s, %.1f MB%n", "stream encode", seconds,
+         megabytes / seconds, compressed.length() / (double) (1 << 20));
+      start = System.nanoTime();
+      input = new HuffmanInputStream(new BufferedInputStream(new FileInputStream(compressed),
+         BUFFER_SIZE));
+      ChecksumStream streamed = new ChecksumStream();
+      copy(input, streamed);
+      input.close();
+      report("stream decode", megabytes, start, streamed, expected);
+   }
+   
+   // post: Writes every byte of input to output
+   private static void copy(InputStream input, OutputStream output) throws IOException {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (int read = input.read(buffer); read > 0; read = input.read(buffer)) {
+         output.write(buffer, 0, read);
+      }
+   }
+   
+   // post: Returns a stream holding the checksum of the bytes of file
+   private static ChecksumStream checksum(File file) throws IOException {
+      ChecksumStream result = new ChecksumStream();
+      InputStream input = new FileInputStream(file);
+      copy(input, result);
+      input.close();
+      return result;
+   }
+   
+   // post: Checks the codes limited to each of LENGTH_LIMITS for characters
+   //       with Fibonacci counts 1, 2, 3, 5 and so on, whose unbounded codes
+   //       are far longer than the limits: no code may be longer than the
+   //       limit, the codes must satisfy Kraft's inequality, and they may
+   //       encode at most MAX_LIMIT_LOSS more bits than the unbounded codes
+   //       (throws IllegalStateException if not)
+   private static void checkLimitedCodes() {
+      long[] counts = new long[HuffmanTree.CHAR_MAX];
+      long previous = 1;
+      long current = 1;
+      for (int i = 0; i < SKEWED_CHARACTERS; i++) {
+         counts[i] = current;
+         long next = previous + current;
+         previous = current;
+         current = next;
+      }
+      // no optimal code here is longer than the number of characters, so
+      // the limit of MAX_CODE_LENGTH bits leaves it unbounded
+      HuffmanTree unbounded = new HuffmanTree(counts, HuffmanTree.MAX_CODE_LENGTH);
+      long unboundedBits = encodedBits(unbounded, counts);
+      for (int maxLength : LENGTH_LIMITS) {
+         HuffmanTree limited = new HuffmanTree(counts, maxLength);
+         long kraft = 0; // sum of 2^(maxLength - length), at most 2^maxLength
+         for (int i = 0; i <= HuffmanTree.CHAR_MAX; i++) {
+            int length = limited.codeLength(i);
+            if (length > maxLength) {
+               throw new IllegalStateException("code of " + length + " bits over the limit of "
+                  + maxLength);
+            } else if (length > 0) {
+               kraft += 1L << (maxLength - length);
+            }
+         }
+         if (kraft > 1L << maxLength) {
+            throw new IllegalStateException("codes limited to " + maxLength
+               + " bits break Kraft's inequality");
+         }
+         long bits = encodedBits(limited, counts);
+         if (bits < unboundedBits || bits > unboundedBits * (1 + MAX_LIMIT_LOSS)) {
+            throw new IllegalStateException("codes limited to " + maxLength + " bits take "
+               + bits + " bits instead of " + unboundedBits);
+         }
+      }
+      System.out.printf("skewed counts: codes up to %d bits limited within %.0f%%%n",
+         longestCode(unbounded), 100 * MAX_LIMIT_LOSS);
+   }
+   
+   // post: Returns the number of bits tree takes to encode characters with the
+   //       given counts, followed by the end of file character
+   private static long encodedBits(HuffmanTree tree, long[] counts) {
+      long bits = tree.codeLength(HuffmanTree.CHAR_MAX);
+      for (int i = 0; i < counts.length; i++) {
+         if (counts[i] > 0) {
+            bits += counts[i] * tree.codeLength(i);
+         }
+      }
+      return bits;
+   }
+   
+   // post: Returns the length of the longest code in tree
+   private static int longestCode(HuffmanTree tree) {
+      int longest = 0;
+      for (int i = 0; i <= HuffmanTree.CHAR_MAX; i++) {
+         longest = Math.max(longest, tree.codeLength(i));
+      }
+      return longest;
+   }
+
+   // post: Writes size random bytes to file, counting each character in counts,
+   //       and returns the checksum of the bytes. Low characters are far more
+   //       common than high ones, as in text.
+   private static long writeInput(File file, long size, Random random, int[] counts)
+         throws IOException {
+      CRC32 checksum = new CRC32();
+      OutputStream output = new FileOutputStream(file);
+      byte[] buffer = new byte[BUFFER_SIZE];
+      for (long written = 0; written < size; written += buffer.length) {
+         for (int i = 0; i < buffer.length; i++) {
+            int data = Math.min(HuffmanTree.CHAR_MAX - 1,
+               (int) (-Math.log(1 - random.nextDouble()) * 12));
+            buffer[i] = (byte) data;
+            counts[data]++;
+         }
+         checksum.update(buffer, 0, buffer.length);
+         output.write(buffer);
+      }
+      output.close();
+      return checksum.getValue();
+   }
+
+   // post: Prints the throughput of a decoder that started at start, checking
+   //       that it wrote the expected bytes
+   private static void report(String name, int megabytes, long start, ChecksumStream output,
+         long expected) {
+      double seconds = (System.nanoTime() - start) / 1e9;
+      if (output.checksum.getValue() != expected) {
+         throw new IllegalStateException(name + " decoder wrote the wrong bytes");
+      }
+      System.out.printf("%-14s %8.2f s %8.1f MB/s%n", name, seconds, megabytes / seconds);
+   }
+
+   // This class discards everything written to it, keeping only a checksum
+   private static class ChecksumStream extends OutputStream {
+      private CRC32 checksum = new CRC32();
+
+      public void write(int b) {
+         checksum.update(b);
+      }
+
+      public void write(byte[] b, int off, int len) {
+         checksum.update(b, off, len);
+      }
+   }
+}
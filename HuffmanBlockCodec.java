@@ -0,0 +1,270 @@
+// This program compresses files as a series of independent blocks, each with
+// its own canonical Huffman code, so that blocks can be compressed and
+// decompressed in parallel and any one block can be decompressed on its own.
+// A compressed file holds the blocks one after another, followed by an index
+// of where each block starts and how many bytes it decompresses to, and ends
+// with a fixed-size trailer that locates the index:
+//
+//    block 0, block 1, ..., block n - 1
+//    index: for each block, its offset (8 bytes) and original length (4 bytes)
+//    trailer: index offset (8 bytes), block count (4 bytes), block size
+//             (4 bytes), MAGIC (4 bytes)
+//
+// Each block is a header written by HuffmanTree.writeHeader followed by the
+// encoded bytes of the block and an end of file character.
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class HuffmanBlockCodec {
+   public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+   public static final int MAGIC = 0x48554642; // "HUFB"
+   private static final int INDEX_ENTRY_SIZE = 12;
+   private static final int TRAILER_SIZE = 20;
+   private int blockSize;
+   private ExecutorService executor;
+   private int maxPending; // most blocks held in memory at once while compressing
+
+   // post: constructs a codec with blocks of DEFAULT_BLOCK_SIZE bytes that runs
+   //       on the common fork/join pool
+   public HuffmanBlockCodec() {
+      this(DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+   }
+
+   // blockSize: Number of bytes of the original file in each block
+   // executor: Executor on which blocks are compressed and decompressed
+   // pre: blockSize must be positive and executor must exist
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a codec with the given block size
+   public HuffmanBlockCodec(int blockSize, ExecutorService executor) {
+      if (blockSize <= 0 || executor == null) {
+         throw new IllegalArgumentException("blockSize must be positive and executor "
+            + "must exist");
+      }
+      this.blockSize = blockSize;
+      this.executor = executor;
+      maxPending = 2 * Runtime.getRuntime().availableProcessors();
+   }
+
+   // source: File to compress
+   // target: File to which the compressed blocks and index are written
+   // post: Compresses source into target one block at a time, compressing up
+   //       to maxPending blocks in parallel while writing them in order
+   public void compress(File source, File target) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            FileChannel output = FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+               StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         long length = input.size();
+         int blockCount = (int) ((length + blockSize - 1) / blockSize);
+         ByteBuffer index = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE + TRAILER_SIZE);
+         Queue<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+         int next = 0;
+         for (int block = 0; block < blockCount; block++) {
+            while (next < blockCount && pending.size() < maxPending) {
+               long start = (long) next * blockSize;
+               final byte[] data = new byte[(int) Math.min(blockSize, length - start)];
+               readFully(input, ByteBuffer.wrap(data), start);
+               pending.add(executor.submit(new Callable<byte[]>() {
+                  public byte[] call() throws IOException {
+                     return compressBlock(data);
+                  }
+               }));
+               next++;
+            }
+            byte[] compressed = await(pending.remove());
+            index.putLong(output.position());
+            index.putInt((int) Math.min(blockSize, length - (long) block * blockSize));
+            writeFully(output, ByteBuffer.wrap(compressed));
+         }
+         index.putLong(output.position());
+         index.putInt(blockCount);
+         index.putInt(blockSize);
+         index.putInt(MAGIC);
+         index.flip();
+         writeFully(output, index);
+      }
+   }
+
+   // source: File written by compress
+   // target: File to which the original bytes are written
+   // pre: source must be a file written by compress (throws IOException if not)
+   // post: Decompresses every block of source in parallel, each straight to
+   //       its place in target
+   public void decompress(File source, File target) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            FileChannel output = FileChannel.open(target.toPath(),
+               StandardOpenOption.READ, StandardOpenOption.WRITE,
+               StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         final Index index = new Index(input);
+         List<Future<Void>> pending = new ArrayList<Future<Void>>();
+         for (int block = 0; block < index.blockCount; block++) {
+            final int current = block;
+            pending.add(executor.submit(new Callable<Void>() {
+               public Void call() throws IOException {
+                  byte[] data = index.decompress(input, current);
+                  writeFully(output, ByteBuffer.wrap(data), index.position(current));
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> result : pending) {
+            await(result);
+         }
+      }
+   }
+
+   // source: File written by compress
+   // block: Number of the block to decompress, counting from zero
+   // pre: source must be a file written by compress (throws IOException if not)
+   //      and 0 <= block < blockCount(source) (throws IllegalArgumentException
+   //      if not)
+   // post: Returns the original bytes of one block, reading only the trailer,
+   //       the index and that block from source
+   public byte[] decompressBlock(File source, int block) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+         Index index = new Index(input);
+         if (block < 0 || block >= index.blockCount) {
+            throw new IllegalArgumentException("block: " + block);
+         }
+         return index.decompress(input, block);
+      }
+   }
+
+   // source: File written by compress
+   // pre: source must be a file written by compress (throws IOException if not)
+   // post: Returns the number of blocks in source
+   public static int blockCount(File source) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+         return new Index(input).blockCount;
+      }
+   }
+
+   // post: Returns a header and the encoded bytes of data, using a code of at
+   //       most HuffmanTree.LIMITED_CODE_LENGTH bits built from the counts of
+   //       data alone
+   private static byte[] compressBlock(byte[] data) throws IOException {
+      long[] counts = new long[HuffmanTree.CHAR_MAX];
+      for (byte b : data) {
+         counts[b & 0xFF]++;
+      }
+      HuffmanTree tree = new HuffmanTree(counts, HuffmanTree.LIMITED_CODE_LENGTH);
+      ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 64);
+      tree.writeHeader(output);
+      tree.encode(new ByteArrayInputStream(data), output, HuffmanTree.CHAR_MAX);
+      return output.toByteArray();
+   }
+
+   // post: Returns the result of a block task, rethrowing the IOException it
+   //       threw, if any
+   private static <T> T await(Future<T> result) throws IOException {
+      try {
+         return result.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new InterruptedIOException("interrupted while waiting for a block");
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         } else if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+         }
+         throw new IOException(e.getCause());
+      }
+   }
+
+   // post: Fills buffer with the bytes of channel starting at position
+   //       (throws EOFException if the channel ends first)
+   private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+         throws IOException {
+      while (buffer.hasRemaining()) {
+         int read = channel.read(buffer, position);
+         if (read < 0) {
+            throw new EOFException("file ends inside a block");
+         }
+         position += read;
+      }
+   }
+
+   // post: Writes all of buffer to channel at its current position
+   private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+         channel.write(buffer);
+      }
+   }
+
+   // post: Writes all of buffer to channel starting at position
+   private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+         throws IOException {
+      while (buffer.hasRemaining()) {
+         position += channel.write(buffer, position);
+      }
+   }
+
+   // This class holds the index of a compressed file, read from its footer
+   private static class Index {
+      private int blockCount;
+      private int blockSize;
+      private long[] offsets; // offset of each block, then of the index
+      private int[] lengths;
+
+      // input: Channel of a file written by compress
+      // pre: input must be a file written by compress (throws IOException if not)
+      // post: Reads the trailer and index of input
+      public Index(FileChannel input) throws IOException {
+         long size = input.size();
+         if (size < TRAILER_SIZE) {
+            throw new IOException("not a block compressed file");
+         }
+         ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+         readFully(input, trailer, size - TRAILER_SIZE);
+         trailer.flip();
+         long indexOffset = trailer.getLong();
+         blockCount = trailer.getInt();
+         blockSize = trailer.getInt();
+         if (trailer.getInt() != MAGIC || blockCount < 0 || blockSize <= 0
+               || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE != size - TRAILER_SIZE) {
+            throw new IOException("not a block compressed file");
+         }
+         ByteBuffer entries = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE);
+         readFully(input, entries, indexOffset);
+         entries.flip();
+         offsets = new long[blockCount + 1];
+         lengths = new int[blockCount];
+         for (int i = 0; i < blockCount; i++) {
+            offsets[i] = entries.getLong();
+            lengths[i] = entries.getInt();
+            if (offsets[i] < (i == 0 ? 0 : offsets[i - 1]) || lengths[i] < 0
+                  || lengths[i] > blockSize) {
+               throw new IOException("corrupt block index");
+            }
+         }
+         offsets[blockCount] = indexOffset;
+         if (blockCount > 0 && offsets[blockCount - 1] > indexOffset) {
+            throw new IOException("corrupt block index");
+         }
+      }
+
+      // post: Returns the position of the first original byte of block
+      public long position(int block) {
+         return (long) block * blockSize;
+      }
+
+      // post: Reads block from input and returns its original bytes
+      public byte[] decompress(FileChannel input, int block) throws IOException {
+         byte[] compressed = new byte[(int) (offsets[block + 1] - offsets[block])];
+         readFully(input, ByteBuffer.wrap(compressed), offsets[block]);
+         InputStream bytes = new ByteArrayInputStream(compressed);
+         HuffmanTree tree = new HuffmanTree(bytes);
+         ByteArrayOutputStream output = new ByteArrayOutputStream(lengths[block]);
+         tree.decode(bytes, output, HuffmanTree.CHAR_MAX);
+         if (output.size() != lengths[block]) {
+            throw new IOException("block " + block + " has the wrong length");
+         }
+         return output.toByteArray();
+      }
+   }
+}
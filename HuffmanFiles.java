@@ -0,0 +1,178 @@
+// This program compresses and decompresses whole files with HuffmanTree
+// through NIO instead of streams. Input files are memory-mapped, so that
+// characters are counted and coded straight from the page cache, and output
+// is collected in a large direct buffer that is written to a FileChannel a
+// buffer at a time. Files too large to map in one piece are read through the
+// same direct buffers instead. A compressed file is the header written by
+// HuffmanTree.writeHeader followed by the encoded characters.
+//
+// A HuffmanFiles object reuses its buffers from one call to the next, so it
+// should only be used by one thread at a time.
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+
+public class HuffmanFiles {
+   public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+   public static final long MAX_MAPPED_SIZE = Integer.MAX_VALUE; // largest single mapping
+   private ByteBuffer inBuffer; // used when a file is too large to map
+   private ByteBuffer outBuffer;
+
+   // post: constructs an object whose output buffers hold DEFAULT_BUFFER_SIZE
+   //       bytes
+   public HuffmanFiles() {
+      this(DEFAULT_BUFFER_SIZE);
+   }
+
+   // bufferSize: Number of bytes collected before each write
+   // pre: bufferSize must be at least 8 (throws IllegalArgumentException if not)
+   // post: constructs an object whose buffers hold bufferSize bytes
+   public HuffmanFiles(int bufferSize) {
+      if (bufferSize < 8) {
+         throw new IllegalArgumentException("bufferSize: " + bufferSize);
+      }
+      inBuffer = ByteBuffer.allocateDirect(bufferSize);
+      outBuffer = ByteBuffer.allocateDirect(bufferSize);
+   }
+
+   // source: File whose characters are counted
+   // post: Returns the number of times each byte occurs in source, indexed by
+   //       the byte from 0 to HuffmanTree.CHAR_MAX - 1. The file is mapped a
+   //       piece at a time, so it may be of any size.
+   public static long[] countCharacters(File source) throws IOException {
+      long[] counts = new long[HuffmanTree.CHAR_MAX];
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+         long size = input.size();
+         for (long start = 0; start < size; start += MAX_MAPPED_SIZE) {
+            ByteBuffer mapped = input.map(FileChannel.MapMode.READ_ONLY, start,
+               Math.min(MAX_MAPPED_SIZE, size - start));
+            int length = mapped.limit();
+            for (int i = 0; i < length; i++) {
+               counts[mapped.get(i) & 0xFF]++;
+            }
+         }
+      }
+      return counts;
+   }
+
+   // source: File to compress
+   // target: File to which the header and the encoded characters are written
+   // post: Counts the characters of source, builds a canonical Huffman tree
+   //       for them, writes its header and the encoded characters to target
+   //       and returns the tree
+   public HuffmanTree compress(File source, File target) throws IOException {
+      HuffmanTree tree = new HuffmanTree(countCharacters(source), HuffmanTree.MAX_CODE_LENGTH);
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      tree.writeHeader(header);
+      try (FileChannel output = openForWriting(target)) {
+         ByteBuffer headerBytes = ByteBuffer.wrap(header.toByteArray());
+         while (headerBytes.hasRemaining()) {
+            output.write(headerBytes);
+         }
+         encode(tree, source, output);
+      }
+      return tree;
+   }
+
+   // source: File written by compress
+   // target: File to which the original characters are written
+   // pre: source must start with a valid header (throws IOException if not)
+   // post: Reads the tree from the header of source, decodes the rest of
+   //       source into target and returns the tree
+   public HuffmanTree decompress(File source, File target) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            FileChannel output = openForWriting(target)) {
+         if (input.size() <= MAX_MAPPED_SIZE) {
+            ByteBuffer mapped = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+            HuffmanTree tree = new HuffmanTree(new BufferInputStream(mapped));
+            tree.decode(null, mapped, output, outBuffer, HuffmanTree.CHAR_MAX);
+            return tree;
+         }
+         HuffmanTree tree = new HuffmanTree(Channels.newInputStream(input));
+         inBuffer.clear();
+         inBuffer.flip();
+         tree.decode(input, inBuffer, output, outBuffer, HuffmanTree.CHAR_MAX);
+         return tree;
+      }
+   }
+
+   // tree: Tree whose codes are used
+   // source: File to encode
+   // target: File to which the encoded characters are written
+   // pre: every byte of source must have a code of at most
+   //      HuffmanTree.MAX_CODE_LENGTH bits (throws IllegalArgumentException if
+   //      not)
+   // post: Writes the codes of the characters of source followed by the code
+   //       of the end of file character HuffmanTree.CHAR_MAX to target,
+   //       without a header
+   public void encode(HuffmanTree tree, File source, File target) throws IOException {
+      try (FileChannel output = openForWriting(target)) {
+         encode(tree, source, output);
+      }
+   }
+
+   // tree: Tree whose codes are used
+   // source: File of encoded characters without a header
+   // target: File to which the decoded characters are written
+   // post: Decodes source into target, stopping at the end of file character
+   //       HuffmanTree.CHAR_MAX
+   public void decode(HuffmanTree tree, File source, File target) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+            FileChannel output = openForWriting(target)) {
+         tree.decode(channelFor(input), bufferFor(input), output, outBuffer,
+            HuffmanTree.CHAR_MAX);
+      }
+   }
+
+   // post: Writes the encoded characters of source to output
+   private void encode(HuffmanTree tree, File source, FileChannel output) throws IOException {
+      try (FileChannel input = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+         tree.encode(channelFor(input), bufferFor(input), output, outBuffer,
+            HuffmanTree.CHAR_MAX);
+      }
+   }
+
+   // post: Returns the channel that a coder must read more input from once
+   //       bufferFor(input) is used up, which is null when the whole of input
+   //       is mapped
+   private static ReadableByteChannel channelFor(FileChannel input) throws IOException {
+      return (input.size() <= MAX_MAPPED_SIZE) ? null : input;
+   }
+
+   // post: Returns the whole of input mapped into memory if it is small
+   //       enough, and otherwise the empty reusable input buffer
+   private ByteBuffer bufferFor(FileChannel input) throws IOException {
+      if (input.size() <= MAX_MAPPED_SIZE) {
+         return input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+      }
+      inBuffer.clear();
+      inBuffer.flip();
+      return inBuffer;
+   }
+
+   // post: Opens file for writing, replacing anything already in it
+   private static FileChannel openForWriting(File file) throws IOException {
+      return FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+         StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+   }
+
+   // This class reads a buffer as a stream, so that a header can be read
+   // straight from a mapped file
+   private static class BufferInputStream extends InputStream {
+      private ByteBuffer buffer;
+
+      // buffer: Given buffer, read from its position to its limit
+      public BufferInputStream(ByteBuffer buffer) {
+         this.buffer = buffer;
+      }
+
+      public int read() {
+         if (!buffer.hasRemaining()) {
+            return -1;
+         }
+         return buffer.get() & 0xFF;
+      }
+   }
+}
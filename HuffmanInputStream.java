@@ -0,0 +1,213 @@
+// This program decompresses a stream written by HuffmanOutputStream as it is
+// read. Each segment brings its own canonical Huffman tree, which is rebuilt
+// from the segment's header before the segment is decoded, so memory use is
+// bounded by the size of the largest segment and bytes become available as
+// soon as the segment holding them has arrived.
+//
+// The stream is given the largest segment it accepts, which must be at least
+// the segment size the stream was written with. A segment that claims to be
+// longer, or to have more encoded bytes than codes of at most
+// HuffmanTree.LIMITED_CODE_LENGTH bits can fill, is reported as corrupt before
+// anything is allocated for it, as is any segment whose tree or codes are
+// invalid, so corrupt input always ends in an IOException.
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+public class HuffmanInputStream extends FilterInputStream {
+   private byte[] encoded = new byte[0];
+   private SegmentChannel decoded = new SegmentChannel();
+   private ByteBuffer buffer = ByteBuffer.allocate(HuffmanOutputStream.DEFAULT_SEGMENT_SIZE);
+   private int position; // next decoded byte to return
+   private int maxSegmentSize; // most bytes a segment may hold
+   private boolean ended;
+
+   // in: Stream of segments written by HuffmanOutputStream
+   // pre: in must exist (throws IllegalArgumentException if not)
+   // post: constructs a stream of the decompressed bytes of in, whose
+   //       segments may hold at most HuffmanOutputStream.DEFAULT_SEGMENT_SIZE
+   //       bytes
+   public HuffmanInputStream(InputStream in) {
+      this(in, HuffmanOutputStream.DEFAULT_SEGMENT_SIZE);
+   }
+
+   // in: Stream of segments written by HuffmanOutputStream
+   // maxSegmentSize: Most bytes a segment may hold
+   // pre: in must exist and maxSegmentSize must be positive
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a stream of the decompressed bytes of in
+   public HuffmanInputStream(InputStream in, int maxSegmentSize) {
+      super(in);
+      if (in == null || maxSegmentSize <= 0) {
+         throw new IllegalArgumentException("in must exist and maxSegmentSize must be "
+            + "positive");
+      }
+      this.maxSegmentSize = maxSegmentSize;
+   }
+
+   // pre: the input must be a valid stream of segments (throws IOException if
+   //      not)
+   // post: returns the next decompressed byte, or -1 at the end of the stream
+   public int read() throws IOException {
+      if (!nextSegment()) {
+         return -1;
+      }
+      return decoded.bytes[position++] & 0xFF;
+   }
+
+   // pre: the input must be a valid stream of segments (throws IOException if
+   //      not)
+   // post: reads up to len decompressed bytes into b starting at off and
+   //       returns how many were read, or -1 at the end of the stream. Reads
+   //       at most the rest of the current segment, so that no more input is
+   //       waited for than is needed.
+   public int read(byte[] b, int off, int len) throws IOException {
+      if (off < 0 || len < 0 || len > b.length - off) {
+         throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+      } else if (len == 0) {
+         return 0;
+      } else if (!nextSegment()) {
+         return -1;
+      }
+      int count = Math.min(len, decoded.size - position);
+      System.arraycopy(decoded.bytes, position, b, off, count);
+      position += count;
+      return count;
+   }
+
+   // post: returns the number of decompressed bytes that can be read without
+   //       reading more input
+   public int available() {
+      return decoded.size - position;
+   }
+
+   // post: skips up to n decompressed bytes of the current segment and
+   //       returns how many were skipped
+   public long skip(long n) throws IOException {
+      if (n <= 0 || !nextSegment()) {
+         return 0;
+      }
+      int count = (int) Math.min(n, decoded.size - position);
+      position += count;
+      return count;
+   }
+
+   public boolean markSupported() {
+      return false;
+   }
+
+   // post: makes sure there is a decoded byte to return, decoding the next
+   //       segment if the current one is used up, and returns false if the
+   //       stream has ended instead
+   private boolean nextSegment() throws IOException {
+      while (position == decoded.size) {
+         if (ended) {
+            return false;
+         }
+         int marker = in.read();
+         if (marker == HuffmanOutputStream.END) {
+            ended = true;
+            return false;
+         } else if (marker != HuffmanOutputStream.SEGMENT) {
+            throw new IOException((marker < 0) ? "stream ends without an end marker"
+               : "corrupt segment marker: " + marker);
+         }
+         int length = readInt();
+         int encodedLength = readInt();
+         if (length <= 0 || length > maxSegmentSize || encodedLength < 0
+               || encodedLength > maxEncodedLength(length)) {
+            throw new IOException("corrupt segment lengths");
+         }
+         try {
+            HuffmanTree tree = new HuffmanTree(in);
+            if (encoded.length < encodedLength) {
+               encoded = new byte[encodedLength];
+            }
+            readFully(encoded, encodedLength);
+            decoded.reset(length);
+            tree.decode(null, ByteBuffer.wrap(encoded, 0, encodedLength), decoded, buffer,
+               HuffmanTree.CHAR_MAX);
+         } catch (IllegalStateException e) {
+            throw new IOException("corrupt segment", e);
+         } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt segment", e);
+         }
+         if (decoded.size != length) {
+            throw new IOException("segment decodes to the wrong length");
+         }
+         position = 0;
+      }
+      return true;
+   }
+
+   // length: Number of bytes a segment holds
+   // post: returns the most encoded bytes the segment can have, which is
+   //       when every byte and the end of file character have codes of
+   //       HuffmanTree.LIMITED_CODE_LENGTH bits
+   private static long maxEncodedLength(int length) {
+      return ((length + 1L) * HuffmanTree.LIMITED_CODE_LENGTH + 7) / 8;
+   }
+
+   // post: reads the next length bytes of input into bytes (throws
+   //       EOFException if the input ends first)
+   private void readFully(byte[] bytes, int length) throws IOException {
+      int total = 0;
+      while (total < length) {
+         int read = in.read(bytes, total, length - total);
+         if (read < 0) {
+            throw new EOFException("stream ends inside a segment");
+         }
+         total += read;
+      }
+   }
+
+   // post: reads four bytes, high byte first, and returns them as an int
+   //       (throws EOFException if the input ends first)
+   private int readInt() throws IOException {
+      int value = 0;
+      for (int i = 0; i < 4; i++) {
+         int b = in.read();
+         if (b < 0) {
+            throw new EOFException("stream ends inside a segment");
+         }
+         value = (value << 8) | b;
+      }
+      return value;
+   }
+
+   // This class collects the decoded bytes of a segment, refusing any more
+   // bytes than the segment says it holds
+   private static class SegmentChannel implements WritableByteChannel {
+      private byte[] bytes = new byte[0];
+      private int size;
+      private int length;
+
+      // length: Number of bytes the next segment holds
+      // post: empties the channel, making room for length bytes
+      public void reset(int length) {
+         if (bytes.length < length) {
+            bytes = new byte[length];
+         }
+         this.length = length;
+         size = 0;
+      }
+
+      public int write(ByteBuffer source) throws IOException {
+         int count = source.remaining();
+         if (count > length - size) {
+            throw new IOException("segment decodes to more than " + length + " bytes");
+         }
+         source.get(bytes, size, count);
+         size += count;
+         return count;
+      }
+
+      public boolean isOpen() {
+         return true;
+      }
+
+      public void close() {
+      }
+   }
+}
@@ -0,0 +1,158 @@
+// This program compresses a stream of bytes as it is written, without
+// counting the characters of the whole input first. Bytes are collected into
+// segments of at most a fixed size, and each segment is compressed with a
+// canonical Huffman tree built from its own counts as soon as it fills up or
+// the stream is flushed. Memory use is bounded by the segment size, so
+// sockets and pipes can be compressed as their data arrives. The segments are
+// read back by HuffmanInputStream. Each segment is written as
+//
+//    SEGMENT (1 byte), original length (4 bytes), encoded length (4 bytes),
+//    header written by HuffmanTree.writeHeader, encoded bytes
+//
+// and the stream ends with a single END byte.
+
+import java.io.*;
+
+public class HuffmanOutputStream extends FilterOutputStream {
+   public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+   public static final int SEGMENT = 1; // marks the start of a segment
+   public static final int END = 0; // marks the end of the stream
+   private byte[] segment;
+   private int size;
+   private SegmentBuffer encoded;
+   private boolean finished;
+
+   // out: Stream to which the compressed segments are written
+   // post: constructs a stream that starts a new tree every
+   //       DEFAULT_SEGMENT_SIZE bytes
+   public HuffmanOutputStream(OutputStream out) {
+      this(out, DEFAULT_SEGMENT_SIZE);
+   }
+
+   // out: Stream to which the compressed segments are written
+   // segmentSize: Most bytes compressed with one tree
+   // pre: out must exist and segmentSize must be positive
+   //      (throws IllegalArgumentException if not)
+   // post: constructs a stream that starts a new tree every segmentSize bytes,
+   //       to be read by a HuffmanInputStream that accepts segments that long
+   public HuffmanOutputStream(OutputStream out, int segmentSize) {
+      super(out);
+      if (out == null || segmentSize <= 0) {
+         throw new IllegalArgumentException("out must exist and segmentSize must be "
+            + "positive");
+      }
+      segment = new byte[segmentSize];
+      encoded = new SegmentBuffer(segmentSize / 2);
+   }
+
+   // pre: the stream must not be finished (throws IOException if it is)
+   // post: adds the byte b to the current segment
+   public void write(int b) throws IOException {
+      checkOpen();
+      segment[size++] = (byte) b;
+      if (size == segment.length) {
+         writeSegment();
+      }
+   }
+
+   // pre: the stream must not be finished (throws IOException if it is)
+   // post: adds len bytes of b starting at off to the current segment,
+   //       compressing each segment that fills up
+   public void write(byte[] b, int off, int len) throws IOException {
+      checkOpen();
+      if (off < 0 || len < 0 || len > b.length - off) {
+         throw new IndexOutOfBoundsException("off: " + off + ", len: " + len);
+      }
+      while (len > 0) {
+         int count = Math.min(len, segment.length - size);
+         System.arraycopy(b, off, segment, size, count);
+         size += count;
+         off += count;
+         len -= count;
+         if (size == segment.length) {
+            writeSegment();
+         }
+      }
+   }
+
+   // post: compresses the bytes written since the last segment as a segment
+   //       of their own and flushes the underlying stream, so that a reader
+   //       can decode everything written so far
+   public void flush() throws IOException {
+      if (!finished) {
+         writeSegment();
+      }
+      out.flush();
+   }
+
+   // post: compresses any remaining bytes and marks the end of the stream,
+   //       without closing the underlying stream. Nothing more may be written.
+   public void finish() throws IOException {
+      if (!finished) {
+         writeSegment();
+         out.write(END);
+         finished = true;
+      }
+   }
+
+   // post: finishes the stream and closes the underlying stream
+   public void close() throws IOException {
+      try {
+         finish();
+      } finally {
+         out.close();
+      }
+   }
+
+   // post: writes the bytes of the current segment, if any, with a tree
+   //       built from their counts, and starts an empty segment
+   private void writeSegment() throws IOException {
+      if (size == 0) {
+         return;
+      }
+      long[] counts = new long[HuffmanTree.CHAR_MAX];
+      for (int i = 0; i < size; i++) {
+         counts[segment[i] & 0xFF]++;
+      }
+      HuffmanTree tree = new HuffmanTree(counts, HuffmanTree.LIMITED_CODE_LENGTH);
+      encoded.reset();
+      tree.encode(new ByteArrayInputStream(segment, 0, size), encoded,
+         HuffmanTree.CHAR_MAX);
+      out.write(SEGMENT);
+      writeInt(size);
+      writeInt(encoded.size());
+      tree.writeHeader(out);
+      out.write(encoded.bytes(), 0, encoded.size());
+      size = 0;
+   }
+
+   // post: writes value as four bytes, high byte first
+   private void writeInt(int value) throws IOException {
+      out.write(value >>> 24);
+      out.write(value >>> 16);
+      out.write(value >>> 8);
+      out.write(value);
+   }
+
+   // pre: the stream must not be finished (throws IOException if it is)
+   private void checkOpen() throws IOException {
+      if (finished) {
+         throw new IOException("stream is finished");
+      }
+   }
+
+   // This class collects the encoded bytes of a segment and lets them be
+   // written without copying them out first
+   private static class SegmentBuffer extends ByteArrayOutputStream {
+
+      // capacity: Given initial capacity
+      public SegmentBuffer(int capacity) {
+         super(capacity);
+      }
+
+      // post: returns the array holding the bytes written so far
+      public byte[] bytes() {
+         return buf;
+      }
+   }
+}
@@ -1,31 +1,213 @@
 // This program enables the compression of sequences of ASCII characters in order to 
-// reduce the number of bytes a file occupies. 
+// reduce the number of bytes a file occupies. Other symbols, such as raw bytes,
+// 16-bit values or the tokens of a tokenizer, can be coded through a
+// HuffmanAlphabet or as arrays of ints.
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
 public class HuffmanTree {
-   private HuffmanNode root;
+   public static final int TABLE_BITS = 11; // bits looked up at once when decoding
+   public static final int MAX_CODE_LENGTH = 57; // longest code encode and decode handle
+   // codes built for blocks and segments are limited so that each decodes in
+   // at most two lookups, one of TABLE_BITS bits and one of the rest
+   public static final int LIMITED_CODE_LENGTH = 15;
+   public static final int CHAR_MAX = 256; // characters are bytes 0 to 255
+   private static final int BUFFER_SIZE = 1 << 16;
+   private static final int LINK = 0x80; // marks a table entry that points to another table
+   private static final int MAX_TABLE_DATA = 1 << 23; // characters must fit in a table entry
+   private static final int NONE = -1; // a missing child
+   private int root;
+   private int nodeCount;
+   private int[] data; // character of each node, -1 for intermediate nodes
+   private int[] left; // left child of each node, or NONE
+   private int[] right; // right child of each node, or NONE
+   private int[] decodeTable; // built the first time a table-driven decode runs
+   private long[] codes; // built the first time encode runs
+   private int[] codeLengths;
+   private boolean canonical; // whether codes follow from their lengths alone
    
    // counts: Collection of character frequencies
    // post: Creates a Huffman Tree representing the compressed bit values of
    //       each character
    public HuffmanTree(int[] counts) {
-      PriorityQueue<HuffmanNode> sortedChars = new PriorityQueue<HuffmanNode>();
+      clear(2 * counts.length + 1);
+      long[] weights = new long[2 * counts.length + 1]; // frequency of each node
+      int[] sortedChars = new int[counts.length + 1]; // heap of nodes by frequency
+      int size = 0;
       for (int i = 0; i < counts.length; i++) {
          if (counts[i] > 0) { // ignore characters that don't occur
-            HuffmanNode node = new HuffmanNode(i, counts[i]);
-            sortedChars.add(node);
+            int node = newNode(i);
+            weights[node] = counts[i];
+            size = push(sortedChars, size, node, weights);
          }
       }
-      sortedChars.add(new HuffmanNode(counts.length, 1)); // end of file character
-      while (sortedChars.size() > 1) {
-         HuffmanNode first = sortedChars.remove();
-         HuffmanNode second = sortedChars.remove();
-         HuffmanNode parent = new HuffmanNode(-1, first.count + second.count, first, second);
-         sortedChars.add(parent);
+      int eof = newNode(counts.length); // end of file character
+      weights[eof] = 1;
+      size = push(sortedChars, size, eof, weights);
+      while (size > 1) {
+         int first = sortedChars[0];
+         size = pop(sortedChars, size, weights);
+         int second = sortedChars[0];
+         size = pop(sortedChars, size, weights);
+         int parent = newNode(-1);
+         left[parent] = first;
+         right[parent] = second;
+         weights[parent] = weights[first] + weights[second];
+         size = push(sortedChars, size, parent, weights);
       }
-      root = sortedChars.remove();
+      root = sortedChars[0];
+   }
+   
+   // counts: Collection of character frequencies
+   // canonical: Whether to replace the codes with canonical codes of the same
+   //            lengths, as needed by writeHeader
+   // pre: canonical codes must be at most MAX_CODE_LENGTH bits
+   //      (throws IllegalStateException if not)
+   // post: Creates a Huffman Tree representing the compressed bit values of
+   //       each character. Canonical codes compress exactly as well, and are
+   //       assigned in order of code length and then of character, so that
+   //       they can be rebuilt from the code lengths alone.
+   public HuffmanTree(int[] counts, boolean canonical) {
+      this(counts);
+      if (canonical) {
+         buildCodes();
+         if (!buildCanonical(codeLengths)) {
+            throw new IllegalStateException("codes longer than " + MAX_CODE_LENGTH
+               + " bits");
+         }
+      }
+   }
+   
+   // counts: Collection of character frequencies, which may be as large as a
+   //         long allows
+   // maxLength: Longest code allowed, in bits
+   // pre: no count may be negative, 1 <= maxLength <= MAX_CODE_LENGTH, and
+   //      2^maxLength must be at least the number of characters that occur,
+   //      counting the end of file character (throws IllegalArgumentException
+   //      if not)
+   // post: Creates a Huffman Tree with canonical codes of at most maxLength
+   //       bits, choosing the code lengths with the package-merge algorithm so
+   //       that no codes within the limit compress better. The end of file
+   //       character is counts.length, with a frequency of 1.
+   public HuffmanTree(long[] counts, int maxLength) {
+      if (maxLength < 1 || maxLength > MAX_CODE_LENGTH) {
+         throw new IllegalArgumentException("maxLength: " + maxLength);
+      }
+      final long[] weights = Arrays.copyOf(counts, counts.length + 1);
+      weights[counts.length] = 1; // end of file character
+      List<Integer> characters = new ArrayList<Integer>();
+      for (int i = 0; i < weights.length; i++) {
+         if (weights[i] < 0) {
+            throw new IllegalArgumentException("negative count for " + i);
+         } else if (weights[i] > 0) { // ignore characters that don't occur
+            characters.add(i);
+         }
+      }
+      if (characters.size() > 1L << maxLength) {
+         throw new IllegalArgumentException(characters.size()
+            + " characters do not fit in codes of " + maxLength + " bits");
+      }
+      Collections.sort(characters, new Comparator<Integer>() {
+         public int compare(Integer first, Integer second) {
+            int result = Long.compare(weights[first], weights[second]);
+            return (result != 0) ? result : Integer.compare(first, second);
+         }
+      });
+      long[] sortedWeights = new long[characters.size()];
+      for (int i = 0; i < sortedWeights.length; i++) {
+         sortedWeights[i] = weights[characters.get(i)];
+      }
+      int[] sortedLengths = packageMerge(sortedWeights, maxLength);
+      int[] lengths = new int[weights.length];
+      Arrays.fill(lengths, -1);
+      for (int i = 0; i < sortedLengths.length; i++) {
+         lengths[characters.get(i)] = sortedLengths[i];
+      }
+      buildCanonical(lengths);
+   }
+   
+   // input: Header written by writeHeader
+   // pre: input must start with a valid header whose characters are all less
+   //      than the 2^23 that decode handles (throws IOException if not)
+   // post: Reconstructs a canonical Huffman tree from the code lengths in the
+   //       header, reading nothing past the end of the header
+   public HuffmanTree(InputStream input) throws IOException {
+      int count = readNumber(input);
+      if (count <= 0 || count > MAX_TABLE_DATA) { // checked before allocating
+         throw new IOException("corrupt Huffman header");
+      }
+      int[] characters = new int[count];
+      int[] lengths = new int[count];
+      int data = -1;
+      for (int i = 0; i < count; i++) {
+         int distance = readNumber(input);
+         if (distance < 0 || distance >= MAX_TABLE_DATA - 1 - data) {
+            throw new IOException("corrupt Huffman header");
+         }
+         data += distance + 1;
+         characters[i] = data;
+         lengths[i] = input.read();
+         if (lengths[i] < 0 || lengths[i] > MAX_CODE_LENGTH) {
+            throw new IOException("corrupt Huffman header");
+         }
+      }
+      int[] allLengths = new int[data + 1];
+      Arrays.fill(allLengths, -1);
+      for (int i = 0; i < count; i++) {
+         allLengths[characters[i]] = lengths[i];
+      }
+      if (!buildCanonical(allLengths)) {
+         throw new IOException("corrupt Huffman header");
+      }
+   }
+   
+   // output: Stream to which the header is written
+   // pre: the tree must have canonical codes (throws IllegalStateException if
+   //      not)
+   // post: Writes a compact binary header from which HuffmanTree(InputStream)
+   //       rebuilds this tree: the number of characters with a code, then for
+   //       each character in increasing order its distance from the previous
+   //       one and a byte holding its code length. Numbers are written seven
+   //       bits per byte, with the high bit set on all but the last byte.
+   public void writeHeader(OutputStream output) throws IOException {
+      if (!canonical) {
+         throw new IllegalStateException("codes are not canonical");
+      }
+      buildCodes();
+      int count = 0;
+      for (int length : codeLengths) {
+         if (length >= 0) {
+            count++;
+         }
+      }
+      writeNumber(output, count);
+      int previous = -1;
+      for (int data = 0; data < codeLengths.length; data++) {
+         if (codeLengths[data] >= 0) {
+            writeNumber(output, data - previous - 1);
+            output.write(codeLengths[data]);
+            previous = data;
+         }
+      }
+   }
+   
+   // data: Given character
+   // post: Returns the number of bits in the code for data, or -1 if data has
+   //       no code
+   public int codeLength(int data) {
+      buildCodes();
+      if (data < 0 || data >= codeLengths.length) {
+         return -1;
+      }
+      return codeLengths[data];
+   }
+   
+   // post: Returns whether the tree has canonical codes
+   public boolean isCanonical() {
+      return canonical;
    }
    
    // output: File in which the information is saved
@@ -41,12 +223,12 @@ public class HuffmanTree {
    // code: Huffman compressed code representing a character
    // post: Writes line with ASCII value of a character followed by a line
    //       with the Huffman-produced code for that character
-   private void write(PrintStream output, HuffmanNode node, String code) {
-      if (node.data == -1) { // intermediate node
-         write(output, node.left, code + "0");
-         write(output, node.right, code +"1");
+   private void write(PrintStream output, int node, String code) {
+      if (data[node] == -1) { // intermediate node
+         write(output, left[node], code + "0");
+         write(output, right[node], code +"1");
       } else {
-         output.println(node.data);
+         output.println(data[node]);
          output.println(code);
       }
    }
@@ -54,25 +236,28 @@ public class HuffmanTree {
    // input: Representation of a Huffman tree stored in standard format
    // post: Reconstructs a Huffman tree from a code file
    public HuffmanTree(Scanner input) {
-      root = new HuffmanNode(-1, 0);
+      clear(1);
+      root = newNode(-1);
       while (input.hasNextLine()) {
          int data = Integer.parseInt(input.nextLine());
          String code = input.nextLine(); // throws NoSuchElementException if line does not exist
-         HuffmanNode node = root;
+         int node = root;
          for (int i = 0; i < code.length(); i++) {
             if (code.charAt(i) == '0') {
-               if (node.left == null) {
-                  node.left = new HuffmanNode(-1, 0);
+               if (left[node] == NONE) {
+                  int child = newNode(-1);
+                  left[node] = child;
                }
-               node = node.left;
+               node = left[node];
             } else {
-               if (node.right == null) {
-                  node.right = new HuffmanNode(-1, 0);
+               if (right[node] == NONE) {
+                  int child = newNode(-1);
+                  right[node] = child;
                }
-               node = node.right;
+               node = right[node];
             }
          }
-         node.data = data;
+         this.data[node] = data;
       }
    }
    
@@ -93,50 +278,785 @@ public class HuffmanTree {
    // post: Reads bits from the input and writes the corresponding character to the output
    //       Returns false if eof is encountered, otherwise returns true
    private boolean decodeChar(BitInputStream input, PrintStream output, 
-         int eof, HuffmanNode node) {
-      if (node.data >= 0) {
-         if (node.data == eof) {
+         int eof, int node) {
+      if (data[node] >= 0) {
+         if (data[node] == eof) {
             return false;
          }
-         output.write(node.data);
+         output.write(data[node]);
          return true;
       }
       if (input.readBit() == 0) {
-         return decodeChar(input, output, eof, node.left);
+         return decodeChar(input, output, eof, left[node]);
       } else {
-         return decodeChar(input, output, eof, node.right);
+         return decodeChar(input, output, eof, right[node]);
       }
    } 
    
-   // This class stores ASCII values of characters and their relative frequencies
-   // for use in a HuffmanTree
-   private class HuffmanNode implements Comparable<HuffmanNode> {
-      private int count; // frequency of character
-      private int data; // ASCII value of character, -1 for intermediate node
-      private HuffmanNode left;
-      private HuffmanNode right;
+   // input: Huffman bit representation of a sequence of characters, packed
+   //        least significant bit first as written by BitOutputStream
+   // output: Stream to which the characters are written
+   // eof: Represents the end of file character at which the decoding stops
+   // post: Writes the same characters as decode(BitInputStream, PrintStream, int)
+   //       would for the same bits, stopping at eof or at the end of input.
+   //       Bits are taken from a 64-bit buffer and looked up TABLE_BITS at a
+   //       time instead of being followed through the tree one at a time.
+   public void decode(InputStream input, OutputStream output, int eof) throws IOException {
+      ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+      in.flip();
+      decodeBuffered(Channels.newChannel(input), in, Channels.newChannel(output),
+         ByteBuffer.allocate(BUFFER_SIZE), eof);
+      output.flush();
+   }
+   
+   // input: Stream of characters to encode
+   // output: Stream to which the Huffman bits are written
+   // eof: Represents the end of file character written after the characters
+   // pre: every character of input and eof must have a code of at most
+   //      MAX_CODE_LENGTH bits (throws IllegalArgumentException if not)
+   // post: Writes the code of each character of input followed by the code of
+   //       eof, packed least significant bit first as BitOutputStream does and
+   //       padded with zero bits to a whole byte
+   public void encode(InputStream input, OutputStream output, int eof) throws IOException {
+      ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+      in.flip();
+      encodeBuffered(Channels.newChannel(input), in, Channels.newChannel(output),
+         ByteBuffer.allocate(BUFFER_SIZE), eof);
+      output.flush();
+   }
+   
+   // input: Stream of symbols to count
+   // alphabet: Alphabet that reads the symbols of input
+   // post: Returns the number of times each symbol of alphabet occurs in
+   //       input, indexed by symbol, ready to be passed to a constructor
+   public static long[] countSymbols(InputStream input, HuffmanAlphabet alphabet)
+         throws IOException {
+      long[] counts = new long[alphabet.size()];
+      InputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+      for (int symbol = alphabet.read(buffered); symbol >= 0;
+            symbol = alphabet.read(buffered)) {
+         counts[symbol]++;
+      }
+      return counts;
+   }
+   
+   // input: Stream of symbols to encode
+   // output: Stream to which the Huffman bits are written
+   // alphabet: Alphabet that reads the symbols of input, whose end of file
+   //           symbol is alphabet.size()
+   // pre: every symbol of input and the end of file symbol must have a code of
+   //      at most MAX_CODE_LENGTH bits (throws IllegalArgumentException if not)
+   // post: Writes the code of each symbol of input followed by the code of the
+   //       end of file symbol, packed as encode(InputStream, OutputStream, int)
+   //       packs them. With FixedWidthAlphabet.BYTES the bits are the same.
+   public void encode(InputStream input, OutputStream output, HuffmanAlphabet alphabet)
+         throws IOException {
+      BitPacker packer = new BitPacker(output);
+      InputStream buffered = new BufferedInputStream(input, BUFFER_SIZE);
+      for (int symbol = alphabet.read(buffered); symbol >= 0;
+            symbol = alphabet.read(buffered)) {
+         packer.write(symbol);
+      }
+      packer.write(alphabet.size());
+      packer.finish();
+   }
+   
+   // input: Huffman bits written by encode(InputStream, OutputStream,
+   //        HuffmanAlphabet)
+   // output: Stream to which the bytes of the symbols are written
+   // alphabet: Alphabet that writes the symbols, whose end of file symbol is
+   //           alphabet.size()
+   // post: Writes each decoded symbol with alphabet, stopping at the end of
+   //       file symbol or at the end of input
+   public void decode(InputStream input, OutputStream output, HuffmanAlphabet alphabet)
+         throws IOException {
+      BitUnpacker unpacker = new BitUnpacker(input);
+      OutputStream buffered = new BufferedOutputStream(output, BUFFER_SIZE);
+      int eof = alphabet.size();
+      for (int symbol = unpacker.read(); symbol >= 0 && symbol != eof;
+            symbol = unpacker.read()) {
+         alphabet.write(symbol, buffered);
+      }
+      buffered.flush();
+   }
+   
+   // symbols: Given symbols, such as the output of a tokenizer
+   // offset: Position of the first symbol to encode
+   // length: Number of symbols to encode
+   // output: Stream to which the Huffman bits are written
+   // eof: Represents the end of file symbol written after the symbols
+   // pre: every symbol and eof must have a code of at most MAX_CODE_LENGTH
+   //      bits (throws IllegalArgumentException if not)
+   // post: Writes the code of each symbol followed by the code of eof
+   public void encode(int[] symbols, int offset, int length, OutputStream output, int eof)
+         throws IOException {
+      BitPacker packer = new BitPacker(output);
+      for (int i = offset; i < offset + length; i++) {
+         packer.write(symbols[i]);
+      }
+      packer.write(eof);
+      packer.finish();
+   }
+   
+   // input: Huffman bits written by encode(int[], int, int, OutputStream, int)
+   // eof: Represents the end of file symbol at which the decoding stops
+   // post: Returns the decoded symbols, stopping at eof or at the end of input
+   public int[] decodeSymbols(InputStream input, int eof) throws IOException {
+      BitUnpacker unpacker = new BitUnpacker(input);
+      int[] symbols = new int[64];
+      int size = 0;
+      for (int symbol = unpacker.read(); symbol >= 0 && symbol != eof;
+            symbol = unpacker.read()) {
+         if (size == symbols.length) {
+            symbols = Arrays.copyOf(symbols, 2 * size);
+         }
+         symbols[size++] = symbol;
+      }
+      return Arrays.copyOf(symbols, size);
+   }
+   
+   // channel: Source of more input once in is used up, or null if in holds all
+   //          of the input, as when in is a memory-mapped file
+   // in: Buffer of input ready to be read, from its position to its limit
+   // outChannel: Channel to which out is written whenever it fills up
+   // out: Buffer used to collect the decoded characters, which is emptied
+   //      first; a large direct buffer makes for few, large writes
+   // eof: Represents the end of file character at which the decoding stops
+   // post: Decodes characters until eof is reached or the input runs out,
+   //       leaving in positioned after the last byte used and writing every
+   //       character to outChannel
+   public void decode(ReadableByteChannel channel, ByteBuffer in,
+         WritableByteChannel outChannel, ByteBuffer out, int eof) throws IOException {
+      out.clear();
+      decodeBuffered(channel, in, outChannel, out, eof);
+   }
+   
+   // channel: Source of more input once in is used up, or null if in holds all
+   //          of the input, as when in is a memory-mapped file
+   // in: Buffer of input ready to be read, from its position to its limit
+   // outChannel: Channel to which out is written whenever it fills up
+   // out: Buffer used to collect the encoded bytes, which is emptied first
+   // eof: Represents the end of file character written after the input
+   // pre: every byte of input and eof must have a code of at most
+   //      MAX_CODE_LENGTH bits (throws IllegalArgumentException if not)
+   // post: Encodes every byte of input followed by eof, writing every encoded
+   //       byte to outChannel
+   public void encode(ReadableByteChannel channel, ByteBuffer in,
+         WritableByteChannel outChannel, ByteBuffer out, int eof) throws IOException {
+      out.clear();
+      encodeBuffered(channel, in, outChannel, out, eof);
+   }
+   
+   // channel: Source of more input once in is used up, or null if in holds all
+   //          of the input
+   // in: Buffer of input ready to be read
+   // outChannel: Channel to which out is written whenever it fills up
+   // out: Empty buffer used to collect the decoded characters
+   // eof: Represents the end of file character at which the decoding stops
+   // post: Decodes characters until eof is reached or the input runs out
+   private void decodeBuffered(ReadableByteChannel channel, ByteBuffer in,
+         WritableByteChannel outChannel, ByteBuffer out, int eof) throws IOException {
+      if (data[root] >= 0) { // only one character, which has an empty code
+         return;
+      }
+      int[] table = decodeTable();
+      int rootMask = (1 << TABLE_BITS) - 1;
+      long bits = 0;
+      int bitCount = 0;
+      boolean moreInput = true;
+      boolean bigEndian = in.order() == ByteOrder.BIG_ENDIAN;
+      while (true) {
+         if (bitCount <= 56 && in.remaining() >= 8) { // refill whole bytes at once
+            int bytes = (63 - bitCount) >>> 3;
+            long word = in.getLong(in.position());
+            if (bigEndian) {
+               word = Long.reverseBytes(word);
+            }
+            bits |= (word & ((1L << (bytes * 8)) - 1)) << bitCount;
+            bitCount += bytes * 8;
+            in.position(in.position() + bytes);
+         }
+         while (bitCount <= 56 && moreInput) {
+            if (!in.hasRemaining()) {
+               moreInput = fill(channel, in);
+            } else {
+               bits |= (in.get() & 0xFFL) << bitCount;
+               bitCount += 8;
+            }
+         }
+         int entry = table[(int) bits & rootMask];
+         int used = 0;
+         int levelBits = TABLE_BITS;
+         while ((entry & LINK) != 0) { // code is longer than the bits of this table
+            used += levelBits;
+            levelBits = entry & (LINK - 1);
+            entry = table[(entry >>> 8) + ((int) (bits >>> used) & ((1 << levelBits) - 1))];
+         }
+         used += entry & (LINK - 1);
+         if (entry == 0 || used > bitCount) {
+            if (!moreInput) {
+               break; // input ended in the middle of a code
+            }
+            throw new IllegalStateException("bits do not match any code");
+         }
+         bits >>>= used;
+         bitCount -= used;
+         int data = entry >>> 8;
+         if (data == eof) {
+            break;
+         }
+         out.put((byte) data);
+         if (!out.hasRemaining()) {
+            drain(outChannel, out);
+         }
+      }
+      drain(outChannel, out);
+   }
+   
+   // channel: Source of more input once in is used up, or null if in holds all
+   //          of the input
+   // in: Buffer of input ready to be read
+   // outChannel: Channel to which out is written whenever it fills up
+   // out: Empty buffer used to collect the encoded bytes
+   // eof: Represents the end of file character written after the input
+   // post: Encodes every byte of input followed by eof
+   private void encodeBuffered(ReadableByteChannel channel, ByteBuffer in,
+         WritableByteChannel outChannel, ByteBuffer out, int eof) throws IOException {
+      buildCodes();
+      long bits = 0;
+      int bitCount = 0;
+      boolean done = false;
+      while (!done) {
+         int data = eof;
+         if (in.hasRemaining() || fill(channel, in)) {
+            data = in.get() & 0xFF;
+         } else {
+            done = true;
+         }
+         int length = -1;
+         if (data < codeLengths.length) {
+            length = codeLengths[data];
+         }
+         if (length < 0 || length > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("no code of at most " + MAX_CODE_LENGTH
+               + " bits for character: " + data);
+         }
+         bits |= codes[data] << bitCount;
+         bitCount += length;
+         while (bitCount >= 8) {
+            out.put((byte) bits);
+            bits >>>= 8;
+            bitCount -= 8;
+            if (!out.hasRemaining()) {
+               drain(outChannel, out);
+            }
+         }
+      }
+      if (bitCount > 0) {
+         out.put((byte) bits);
+      }
+      drain(outChannel, out);
+   }
+   
+   // lengths: Code length of each character, or -1 for characters without a
+   //          code
+   // post: Replaces the tree with one holding canonical codes of the given
+   //       lengths. Characters are taken in order of code length and then of
+   //       character, and each code is the previous code plus one, shifted
+   //       left to the new length. Returns false, leaving the tree incomplete,
+   //       if the lengths cannot all be given codes.
+   private boolean buildCanonical(int[] lengths) {
+      int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+      for (int length : lengths) {
+         if (length > MAX_CODE_LENGTH) {
+            return false;
+         } else if (length >= 0) {
+            lengthCounts[length]++;
+         }
+      }
+      decodeTable = null;
+      codes = null;
+      codeLengths = null;
+      canonical = true;
+      clear(2 * lengths.length);
+      root = newNode(-1);
+      long code = 0;
+      int previousLength = -1;
+      for (int length = 0; length <= MAX_CODE_LENGTH; length++) {
+         for (int data = 0; data < lengths.length && lengthCounts[length] > 0; data++) {
+            if (lengths[data] == length) {
+               if (length == 0) { // only one character, which has an empty code
+                  if (previousLength >= 0) {
+                     return false;
+                  }
+                  this.data[root] = data;
+               } else {
+                  if (previousLength >= 0) {
+                     code = (code + 1) << (length - previousLength);
+                  }
+                  if (previousLength == 0 || (code >>> length) != 0
+                        || !insert(data, code, length)) {
+                     return false;
+                  }
+               }
+               previousLength = length;
+            }
+         }
+      }
+      return true;
+   }
+   
+   // post: Adds a leaf for character at the end of the path given by the low
+   //       length bits of code, most significant bit first, where 0 means left
+   //       and 1 means right. Returns false if the path runs into another leaf.
+   private boolean insert(int character, long code, int length) {
+      int node = root;
+      for (int i = length - 1; i >= 0; i--) {
+         if (data[node] >= 0) {
+            return false;
+         }
+         if (((code >>> i) & 1) == 0) {
+            if (left[node] == NONE) {
+               int child = newNode(-1);
+               left[node] = child;
+            }
+            node = left[node];
+         } else {
+            if (right[node] == NONE) {
+               int child = newNode(-1);
+               right[node] = child;
+            }
+            node = right[node];
+         }
+      }
+      if (data[node] >= 0 || left[node] != NONE || right[node] != NONE) {
+         return false;
+      }
+      data[node] = character;
+      return true;
+   }
+   
+   // weights: Frequencies of the characters, in increasing order
+   // maxLength: Longest code allowed, in bits
+   // pre: 2^maxLength >= weights.length
+   // post: Returns the code length of each character in an optimal code of at
+   //       most maxLength bits. Each round pairs up the cheapest items of the
+   //       previous round into packages and merges them with the characters;
+   //       a character's code length is how many times it appears among the
+   //       2n - 2 cheapest items of the last round. Only those items can ever
+   //       be chosen, so every round keeps at most 2n - 2 of them.
+   private static int[] packageMerge(long[] weights, int maxLength) {
+      int n = weights.length;
+      int[] lengths = new int[n];
+      if (n == 1) {
+         return lengths; // only the end of file character, which has an empty code
+      }
+      int limit = 2 * n - 2;
+      int capacity = n + maxLength * (n - 1);
+      long[] itemWeights = Arrays.copyOf(weights, capacity); // items below n are characters
+      int[] left = new int[capacity];
+      int[] right = new int[capacity];
+      int items = n;
+      int[] list = new int[limit];
+      int listSize = n;
+      for (int i = 0; i < n; i++) {
+         list[i] = i;
+      }
+      for (int round = 1; round < maxLength; round++) {
+         int[] next = new int[limit];
+         int size = 0;
+         int character = 0;
+         int pair = 0;
+         int pairs = listSize / 2;
+         while (size < limit && (character < n || pair < pairs)) {
+            long packageWeight = 0;
+            if (pair < pairs) {
+               packageWeight = add(itemWeights[list[2 * pair]], itemWeights[list[2 * pair + 1]]);
+            }
+            if (pair == pairs || (character < n && weights[character] <= packageWeight)) {
+               next[size++] = character++;
+            } else {
+               itemWeights[items] = packageWeight;
+               left[items] = list[2 * pair];
+               right[items] = list[2 * pair + 1];
+               next[size++] = items++;
+               pair++;
+            }
+         }
+         list = next;
+         listSize = size;
+      }
+      for (int i = 0; i < limit; i++) {
+         countLeaves(list[i], n, left, right, lengths);
+      }
+      return lengths;
+   }
+   
+   // post: Adds one to the code length of each character inside item
+   private static void countLeaves(int item, int n, int[] left, int[] right, int[] lengths) {
+      if (item < n) {
+         lengths[item]++;
+      } else {
+         countLeaves(left[item], n, left, right, lengths);
+         countLeaves(right[item], n, left, right, lengths);
+      }
+   }
+   
+   // post: Returns first + second, or Long.MAX_VALUE if the sum is too large
+   //       for a long. Packages only need to be ordered correctly, and any
+   //       lengths package-merge picks are valid codes.
+   private static long add(long first, long second) {
+      long sum = first + second;
+      return (sum < 0) ? Long.MAX_VALUE : sum;
+   }
+   
+   // post: Writes value seven bits per byte, low bits first, setting the high
+   //       bit of every byte but the last
+   private static void writeNumber(OutputStream output, int value) throws IOException {
+      while ((value & ~0x7F) != 0) {
+         output.write((value & 0x7F) | 0x80);
+         value >>>= 7;
+      }
+      output.write(value);
+   }
+   
+   // pre: input must hold a number written by writeNumber (throws IOException
+   //      if not)
+   // post: Reads and returns a number written by writeNumber
+   private static int readNumber(InputStream input) throws IOException {
+      int value = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+         int b = input.read();
+         if (b < 0) {
+            throw new EOFException("end of input inside a number");
+         }
+         value |= (b & 0x7F) << shift;
+         if ((b & 0x80) == 0) {
+            return value;
+         }
+      }
+      throw new IOException("number is too long");
+   }
+   
+   // channel: Source of more input, or null if there is none
+   // in: Buffer of input that has been used up
+   // post: Reads more input into in and returns whether there was any
+   private static boolean fill(ReadableByteChannel channel, ByteBuffer in)
+         throws IOException {
+      if (channel == null) {
+         return false;
+      }
+      in.compact();
+      int read = 0;
+      while (read == 0) {
+         read = channel.read(in);
+      }
+      in.flip();
+      return read > 0;
+   }
+   
+   // post: Writes everything in out to channel and empties out
+   private static void drain(WritableByteChannel channel, ByteBuffer out)
+         throws IOException {
+      out.flip();
+      while (out.hasRemaining()) {
+         channel.write(out);
+      }
+      out.clear();
+   }
+   
+   // post: Returns the lookup tables used by decode, building them the first
+   //       time. The first TABLE_BITS entries are indexed by the next
+   //       TABLE_BITS bits of input. An entry for a code that fits holds the
+   //       character and the code length; an entry for a longer code holds the
+   //       position and size of a further table for the bits that follow.
+   private int[] decodeTable() {
+      if (decodeTable == null) {
+         if (height(root) > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("codes longer than " + MAX_CODE_LENGTH
+               + " bits");
+         } else if (maxData(root) >= MAX_TABLE_DATA) {
+            throw new IllegalStateException("characters must be less than "
+               + MAX_TABLE_DATA);
+         }
+         TableBuilder builder = new TableBuilder();
+         builder.add(root, TABLE_BITS);
+         decodeTable = Arrays.copyOf(builder.entries, builder.size);
+      }
+      return decodeTable;
+   }
+   
+   // post: Records the code and code length of each character, building them
+   //       the first time. Codes are stored least significant bit first, in
+   //       the order the bits are written; characters without a code have a
+   //       length of -1.
+   private void buildCodes() {
+      if (codes == null) {
+         int maxData = maxData(root);
+         long[] allCodes = new long[maxData + 1];
+         int[] allLengths = new int[maxData + 1];
+         Arrays.fill(allLengths, -1);
+         buildCodes(root, 0, 0, allCodes, allLengths);
+         codeLengths = allLengths;
+         codes = allCodes;
+      }
+   }
+   
+   // post: Records the codes of the characters below node, whose code so far
+   //       is code with length bits
+   private void buildCodes(int node, long code, int length, long[] allCodes,
+         int[] allLengths) {
+      if (node == NONE) {
+         return;
+      }
+      if (data[node] >= 0) {
+         allCodes[data[node]] = code;
+         allLengths[data[node]] = length;
+      } else {
+         long nextBit = (length < 64) ? 1L << length : 0;
+         buildCodes(left[node], code, length + 1, allCodes, allLengths);
+         buildCodes(right[node], code | nextBit, length + 1, allCodes, allLengths);
+      }
+   }
+   
+   // post: Returns the largest character below node, or -1 if there is none
+   private int maxData(int node) {
+      if (node == NONE) {
+         return -1;
+      }
+      return Math.max(data[node], Math.max(maxData(left[node]), maxData(right[node])));
+   }
+   
+   // post: Returns the length of the longest path from node to a leaf
+   private int height(int node) {
+      if (node == NONE || data[node] >= 0) {
+         return 0;
+      }
+      return 1 + Math.max(height(left[node]), height(right[node]));
+   }
+   
+   // capacity: Number of nodes to make room for
+   // post: Removes every node, leaving room for capacity nodes
+   private void clear(int capacity) {
+      capacity = Math.max(capacity, 1);
+      data = new int[capacity];
+      left = new int[capacity];
+      right = new int[capacity];
+      nodeCount = 0;
+   }
+   
+   // character: Character of the new node, or -1 for an intermediate node
+   // post: Adds a node without children and returns its index, making room
+   //       for more nodes if needed
+   private int newNode(int character) {
+      if (nodeCount == data.length) {
+         data = Arrays.copyOf(data, 2 * nodeCount);
+         left = Arrays.copyOf(left, 2 * nodeCount);
+         right = Arrays.copyOf(right, 2 * nodeCount);
+      }
+      data[nodeCount] = character;
+      left[nodeCount] = NONE;
+      right[nodeCount] = NONE;
+      return nodeCount++;
+   }
+   
+   // heap: Nodes ordered so that each node weighs no more than its children
+   // size: Number of nodes in heap
+   // node: Node to add
+   // weights: Frequency of each node
+   // post: Adds node to heap and returns the new size. Nodes move exactly as
+   //       in a PriorityQueue, so that ties are broken as they always were.
+   private static int push(int[] heap, int size, int node, long[] weights) {
+      int k = size;
+      while (k > 0) {
+         int parent = (k - 1) >>> 1;
+         if (weights[node] >= weights[heap[parent]]) {
+            break;
+         }
+         heap[k] = heap[parent];
+         k = parent;
+      }
+      heap[k] = node;
+      return size + 1;
+   }
+   
+   // heap: Nodes ordered so that each node weighs no more than its children
+   // size: Number of nodes in heap
+   // weights: Frequency of each node
+   // pre: size > 0
+   // post: Removes the node at the top of heap and returns the new size,
+   //       moving nodes exactly as a PriorityQueue does
+   private static int pop(int[] heap, int size, long[] weights) {
+      int n = size - 1;
+      int last = heap[n];
+      if (n > 0) {
+         int k = 0;
+         int half = n >>> 1;
+         while (k < half) {
+            int child = 2 * k + 1;
+            int sibling = child + 1;
+            if (sibling < n && weights[heap[child]] > weights[heap[sibling]]) {
+               child = sibling;
+            }
+            if (weights[last] <= weights[heap[child]]) {
+               break;
+            }
+            heap[k] = heap[child];
+            k = child;
+         }
+         heap[k] = last;
+      }
+      return n;
+   }
+   
+   // This class fills in the decode tables, adding a further table for each
+   // node that is still inside the tree after a table's worth of bits
+   private class TableBuilder {
+      private int[] entries = new int[1 << TABLE_BITS];
+      private int size;
       
-      // data: Given ASCII value
-      // count: Given frequency
-      public HuffmanNode(int data, int count) {
-         this(data, count, null, null);
+      // node: Node at which the new table starts
+      // tableBits: Number of bits the new table is indexed by
+      // post: Adds a table for the codes below node and returns its position
+      public int add(int node, int tableBits) {
+         int offset = size;
+         size += 1 << tableBits;
+         if (size > entries.length) {
+            entries = Arrays.copyOf(entries, Math.max(size, entries.length * 2));
+         }
+         fill(node, offset, tableBits, 0, 0);
+         return offset;
       }
       
-      // data: Given ASCII value
-      // count: Given frequency
-      // left: Reference to left subtree
-      // right: Reference to right subtree
-      public HuffmanNode(int data, int count, HuffmanNode left, HuffmanNode right) {
-         this.data = data;
-         this.count = count;
-         this.left = left;
-         this.right = right;
+      // post: Fills the entries of the table at offset whose low depth bits are
+      //       prefix, where prefix leads from the start of the table to node
+      private void fill(int node, int offset, int tableBits, int depth, int prefix) {
+         if (node == NONE) {
+            return; // no code starts with these bits
+         }
+         if (data[node] >= 0) {
+            int entry = (data[node] << 8) | depth;
+            for (int high = 0; high < 1 << (tableBits - depth); high++) {
+               entries[offset + (prefix | (high << depth))] = entry;
+            }
+         } else if (depth == tableBits) {
+            int nextBits = Math.min(TABLE_BITS, height(node));
+            int next = add(node, nextBits);
+            entries[offset + prefix] = (next << 8) | LINK | nextBits;
+         } else {
+            fill(left[node], offset, tableBits, depth + 1, prefix);
+            fill(right[node], offset, tableBits, depth + 1, prefix | (1 << depth));
+         }
+      }
+   }
+   
+   // This class packs the codes of symbols into bytes, least significant bit
+   // first, for the encoders that take one symbol at a time
+   private class BitPacker {
+      private OutputStream output;
+      private byte[] buffer = new byte[BUFFER_SIZE];
+      private int size;
+      private long bits;
+      private int bitCount;
+      
+      // output: Stream to which the packed bytes are written
+      public BitPacker(OutputStream output) {
+         buildCodes();
+         this.output = output;
+      }
+      
+      // pre: symbol must have a code of at most MAX_CODE_LENGTH bits
+      //      (throws IllegalArgumentException if not)
+      // post: Adds the code of symbol, writing out every whole byte
+      public void write(int symbol) throws IOException {
+         int length = -1;
+         if (symbol >= 0 && symbol < codeLengths.length) {
+            length = codeLengths[symbol];
+         }
+         if (length < 0 || length > MAX_CODE_LENGTH) {
+            throw new IllegalArgumentException("no code of at most " + MAX_CODE_LENGTH
+               + " bits for character: " + symbol);
+         }
+         bits |= codes[symbol] << bitCount;
+         bitCount += length;
+         while (bitCount >= 8) {
+            buffer[size++] = (byte) bits;
+            bits >>>= 8;
+            bitCount -= 8;
+            if (size == buffer.length) {
+               output.write(buffer, 0, size);
+               size = 0;
+            }
+         }
+      }
+      
+      // post: Pads the last code with zero bits to a whole byte and writes
+      //       everything that is left
+      public void finish() throws IOException {
+         if (bitCount > 0) {
+            buffer[size++] = (byte) bits;
+            bits = 0;
+            bitCount = 0;
+         }
+         output.write(buffer, 0, size);
+         size = 0;
+         output.flush();
+      }
+   }
+   
+   // This class looks up the symbols of packed codes in the decode tables,
+   // for the decoders that produce one symbol at a time
+   private class BitUnpacker {
+      private InputStream input;
+      private byte[] buffer = new byte[BUFFER_SIZE];
+      private int position;
+      private int limit;
+      private boolean moreInput = true;
+      private int[] table = decodeTable();
+      private long bits;
+      private int bitCount;
+      
+      // input: Stream from which the packed bytes are read
+      public BitUnpacker(InputStream input) {
+         this.input = input;
       }
       
-      // other: HuffmanNode with which to compare
-      // post: Returns difference between the two HuffmanNode character frequencies
-      public int compareTo(HuffmanNode other) {
-         return (this.count - other.count);
+      // post: Returns the next symbol, or -1 if the input ends first
+      public int read() throws IOException {
+         if (data[root] >= 0) { // only one character, which has an empty code
+            return -1;
+         }
+         while (bitCount <= 56 && moreInput) {
+            if (position == limit) {
+               limit = input.read(buffer);
+               position = 0;
+               if (limit < 0) {
+                  limit = 0;
+                  moreInput = false;
+               }
+            } else {
+               bits |= (buffer[position++] & 0xFFL) << bitCount;
+               bitCount += 8;
+            }
+         }
+         int entry = table[(int) bits & ((1 << TABLE_BITS) - 1)];
+         int used = 0;
+         int levelBits = TABLE_BITS;
+         while ((entry & LINK) != 0) { // code is longer than the bits of this table
+            used += levelBits;
+            levelBits = entry & (LINK - 1);
+            entry = table[(entry >>> 8) + ((int) (bits >>> used) & ((1 << levelBits) - 1))];
+         }
+         used += entry & (LINK - 1);
+         if (entry == 0 || used > bitCount) {
+            if (!moreInput) {
+               return -1; // input ended in the middle of a code
+            }
+            throw new IllegalStateException("bits do not match any code");
+         }
+         bits >>>= used;
+         bitCount -= used;
+         return entry >>> 8;
       }
    }
-}
\ No newline at end of file
+}
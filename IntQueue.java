@@ -0,0 +1,76 @@
+// This program passes ints from one thread to another through a ring buffer
+// of fixed size, without locks. Exactly one thread may add to the queue and
+// exactly one other thread may remove from it. Each side owns one index: it
+// touches the slot first and then publishes the index with a release store,
+// so the other side sees the slot once it sees the index. Each side also
+// keeps its last reading of the other side's index and only reads it again
+// when that copy says the queue is full or empty, so most adds and removes
+// read no index written by the other thread.
+
+import java.util.concurrent.atomic.*;
+
+public class IntQueue {
+   private int[] slots;
+   private int mask;
+   private AtomicLong head = new AtomicLong(); // next slot to remove, set by the consumer
+   private AtomicLong tail = new AtomicLong(); // next slot to add, set by the producer
+   private long knownHead; // producer's last reading of head
+   private long knownTail; // consumer's last reading of tail
+
+   // capacity: Most ints the queue holds at once
+   // pre: capacity must be a power of 2 (throws IllegalArgumentException if not)
+   // post: constructs an empty queue
+   public IntQueue(int capacity) {
+      if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+         throw new IllegalArgumentException("capacity: " + capacity);
+      }
+      slots = new int[capacity];
+      mask = capacity - 1;
+   }
+
+   // value: Int to add
+   // pre: called only by the producer thread
+   // post: adds value to the back of the queue and returns true, or returns
+   //       false and leaves the queue alone if it is full
+   public boolean offer(int value) {
+      long index = tail.get();
+      if (index - knownHead == slots.length) {
+         knownHead = head.get();
+         if (index - knownHead == slots.length) {
+            return false;
+         }
+      }
+      slots[(int) index & mask] = value;
+      tail.lazySet(index + 1);
+      return true;
+   }
+
+   // missing: Value to return if the queue is empty
+   // pre: called only by the consumer thread
+   // post: removes and returns the front of the queue, or returns missing if
+   //       the queue is empty
+   public int poll(int missing) {
+      long index = head.get();
+      if (index == knownTail) {
+         knownTail = tail.get();
+         if (index == knownTail) {
+            return missing;
+         }
+      }
+      int value = slots[(int) index & mask];
+      head.lazySet(index + 1);
+      return value;
+   }
+
+   // post: returns the number of ints in the queue, which may already be out
+   //       of date if the other thread is using the queue
+   public int size() {
+      long first = head.get();
+      return (int) (tail.get() - first);
+   }
+
+   // post: returns the most ints the queue holds at once
+   public int capacity() {
+      return slots.length;
+   }
+}
@@ -1,21 +1,48 @@
 // This program keeps track of an inventory of letters of the alphabet for a
 // given input. It enables addition or subtraction with another LetterInventory.
+// The alphabet is English unless another Alphabet is given.
 
 public class LetterInventory {
    public static final int TOTAL_CHARACTERS = 'z' - 'a' + 1;
    public static final int START_VAL = 'a';
    public static final int END_VAL = 'z';
+   private Alphabet alphabet;
    private int[] elementData;
    private int size;
    
    // post: constructs an inventory of the input string with counts of each letter
    public LetterInventory(String data) {
-      data = data.toLowerCase();
-      elementData = new int[TOTAL_CHARACTERS];
-      for (int i = 0; i < data.length(); i++) {
-         if (data.charAt(i) >= START_VAL && data.charAt(i) <= END_VAL){
-            elementData[data.charAt(i) - 'a']++;
-            size++;
+      this(data, Alphabet.ENGLISH);
+   }
+   
+   // pre: alphabet must exist (throws IllegalArgumentException if not)
+   // post: constructs an inventory of the input string with counts of each letter
+   //       of alphabet, after folding the string for the alphabet
+   public LetterInventory(String data, Alphabet alphabet) {
+      if (alphabet == null) {
+         throw new IllegalArgumentException("alphabet must exist");
+      }
+      this.alphabet = alphabet;
+      if (alphabet.isAscii()) {
+         data = data.toLowerCase();
+         elementData = new int[TOTAL_CHARACTERS];
+         for (int i = 0; i < data.length(); i++) {
+            if (data.charAt(i) >= START_VAL && data.charAt(i) <= END_VAL){
+               elementData[data.charAt(i) - 'a']++;
+               size++;
+            }
+         }
+      } else {
+         data = alphabet.fold(data);
+         elementData = new int[alphabet.size()];
+         for (int i = 0; i < data.length(); ) {
+            int letter = data.codePointAt(i);
+            i += Character.charCount(letter);
+            int index = alphabet.indexOf(letter);
+            if (index >= 0) {
+               elementData[index]++;
+               size++;
+            }
          }
       }
    }
@@ -34,60 +61,86 @@ public class LetterInventory {
    //      IllegalArgumentException if not)
    // post: returns count of how many of the letter are in the ineventory
    public int get(char letter) {
-      letter = Character.toLowerCase(letter);
-      if (letter < START_VAL || letter > END_VAL) {
+      int index = indexOf(letter);
+      if (index < 0) {
          throw new IllegalArgumentException("character: " + letter);
       }
-      return elementData[letter - 'a'];
+      return elementData[index];
    }
    
    // post: creates an alphabetized, bracketed version of the inventory
    public String toString() {
-      String result = "[";
-      for (int i = 0; i < TOTAL_CHARACTERS; i++) {
+      StringBuilder result = new StringBuilder(size + 2);
+      result.append("[");
+      for (int i = 0; i < elementData.length; i++) {
          for (int j = 0; j < elementData[i]; j++) {
-            result = result + ((char) ('a' + i));
+            result.appendCodePoint(alphabet.letterAt(i));
          }
       }
-      result = result + "]";
-      return result;
+      result.append("]");
+      return result.toString();
    }
    
    // pre: letter must be an alphabetic character and value must 
    //      be nonnegative (throws IllegalArgumentException if not)
    // post: sets the count for the given letter to the given value
    public void set(char letter, int value) {
-      letter = Character.toLowerCase(letter);
-      if (letter < START_VAL || letter > END_VAL || value < 0) {
+      int index = indexOf(letter);
+      if (index < 0 || value < 0) {
          throw new IllegalArgumentException("letter: " + letter + ", value: " + value);
       }
-      size += (value - elementData[letter - 'a']);
-      elementData[letter - 'a'] = value;
+      size += (value - elementData[index]);
+      elementData[index] = value;
    }
     
+   // pre: other must use the same alphabet (throws IllegalArgumentException if not)
    // post: returns new LetterInventroy object that is the sum of this and other 
    public LetterInventory add(LetterInventory other) {
-      LetterInventory sum = new LetterInventory("");
-      for (int i = 0; i < TOTAL_CHARACTERS; i++) {
-         char letter = (char) ('a' + i);
-         sum.set(letter, (this.get(letter) + other.get(letter)));
+      checkAlphabet(other);
+      LetterInventory sum = new LetterInventory("", alphabet);
+      for (int i = 0; i < elementData.length; i++) {
+         sum.elementData[i] = this.elementData[i] + other.elementData[i];
       }
+      sum.size = this.size + other.size;
       return sum;
    }
    
    // pre: the count of this at index [i] must be greater than or equal to 
    //      the count of other at index [i] (returns null if not)
+   //      other must use the same alphabet (throws IllegalArgumentException if not)
    // post: returns new LetterInventory object that is the difference between
    //       this and other
    public LetterInventory subtract(LetterInventory other) {
-      LetterInventory difference = new LetterInventory("");
-      for (int i = 0; i < TOTAL_CHARACTERS; i++) {
+      checkAlphabet(other);
+      LetterInventory difference = new LetterInventory("", alphabet);
+      for (int i = 0; i < elementData.length; i++) {
          if (this.elementData[i] < other.elementData[i]) {
             return null;
          }
-         char letter = (char) ('a' + i);
-         difference.set(letter, (this.get(letter) - other.get(letter)));
+         difference.elementData[i] = this.elementData[i] - other.elementData[i];
       }
+      difference.size = this.size - other.size;
       return difference;
    }
+   
+   // post: returns the position of letter in elementData, or -1 if it is not
+   //       a letter of the alphabet
+   private int indexOf(char letter) {
+      int index;
+      if (alphabet.isAscii()) {
+         letter = Character.toLowerCase(letter);
+         index = (letter < START_VAL || letter > END_VAL) ? -1 : letter - 'a';
+      } else {
+         String folded = alphabet.fold(String.valueOf(letter));
+         index = (folded.length() > 0) ? alphabet.indexOf(folded.codePointAt(0)) : -1;
+      }
+      return index;
+   }
+   
+   // pre: other must use the same alphabet (throws IllegalArgumentException if not)
+   private void checkAlphabet(LetterInventory other) {
+      if (other.alphabet != alphabet) {
+         throw new IllegalArgumentException("inventories use different alphabets");
+      }
+   }
 }
\ No newline at end of file
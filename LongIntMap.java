@@ -0,0 +1,107 @@
+// This program maps nonnegative long keys to int values using open addressing
+// with linear probing, like IntIntMap. It can be cleared and filled again
+// without allocating, so one map can be reused for every round of a search.
+
+import java.util.*;
+
+public class LongIntMap {
+   private static final long EMPTY = -1;
+   private static final int DEFAULT_CAPACITY = 16;
+   private long[] keys;
+   private int[] values;
+   private int size;
+
+   // post: constructs an empty map
+   public LongIntMap() {
+      this(DEFAULT_CAPACITY);
+   }
+
+   // expected: Number of keys the map is expected to hold
+   // pre: expected must be nonnegative (throws IllegalArgumentException if not)
+   // post: constructs an empty map that can hold expected keys without growing
+   public LongIntMap(int expected) {
+      if (expected < 0) {
+         throw new IllegalArgumentException("expected: " + expected);
+      }
+      int capacity = DEFAULT_CAPACITY;
+      while (capacity < expected * 2) { // keep the table at most half full
+         capacity *= 2;
+      }
+      keys = new long[capacity];
+      Arrays.fill(keys, EMPTY);
+      values = new int[capacity];
+   }
+
+   // post: returns the number of keys in the map
+   public int size() {
+      return size;
+   }
+
+   // key: Given key
+   // missing: Value to return if key is not in the map
+   // post: returns the value for key, or missing if there is none
+   public int get(long key, int missing) {
+      if (key < 0) {
+         return missing;
+      }
+      int mask = keys.length - 1;
+      for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+         if (keys[slot] == key) {
+            return values[slot];
+         }
+      }
+      return missing;
+   }
+
+   // key: Given key
+   // value: Given value
+   // pre: key must be nonnegative (throws IllegalArgumentException if not)
+   // post: maps key to value, replacing any previous value
+   public void put(long key, int value) {
+      if (key < 0) {
+         throw new IllegalArgumentException("key: " + key);
+      }
+      if ((size + 1) * 2 > keys.length) {
+         grow();
+      }
+      int mask = keys.length - 1;
+      int slot = hash(key) & mask;
+      while (keys[slot] != EMPTY && keys[slot] != key) {
+         slot = (slot + 1) & mask;
+      }
+      if (keys[slot] == EMPTY) {
+         keys[slot] = key;
+         size++;
+      }
+      values[slot] = value;
+   }
+
+   // post: removes every key, keeping the table at its current size
+   public void clear() {
+      if (size > 0) {
+         Arrays.fill(keys, EMPTY);
+         size = 0;
+      }
+   }
+
+   // post: doubles the size of the table and reinserts every key
+   private void grow() {
+      long[] oldKeys = keys;
+      int[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      Arrays.fill(keys, EMPTY);
+      values = new int[oldValues.length * 2];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+         if (oldKeys[i] != EMPTY) {
+            put(oldKeys[i], oldValues[i]);
+         }
+      }
+   }
+
+   // post: returns a well mixed hash of key
+   private static int hash(long key) {
+      long result = key * 0x9E3779B97F4A7C15L;
+      return (int) (result ^ (result >>> 32));
+   }
+}
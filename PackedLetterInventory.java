@@ -0,0 +1,395 @@
+// This program keeps track of an inventory of letters of the alphabet like
+// LetterInventory, but packs the count of each letter into one byte of a long
+// so that whole inventories can be compared, added and subtracted eight
+// letters at a time. Inventories are changed in place and never allocate,
+// which makes them suitable for the inner loops of a search, and they can be
+// used as keys in a hash table. Letters come from an Alphabet, which is
+// English unless another one is given.
+//
+// A byte holds counts up to MAX_COUNT. An inventory that needs more can be
+// made wide, with two bytes per count and four letters to a long, holding
+// counts up to MAX_WIDE_COUNT. Only inventories of the same width can be
+// combined.
+
+public class PackedLetterInventory {
+   public static final int TOTAL_CHARACTERS = 'z' - 'a' + 1;
+   public static final int MAX_COUNT = 127; // largest count one byte can hold
+   public static final int MAX_WIDE_COUNT = 32767; // largest count two bytes can hold
+   private Alphabet alphabet;
+   private int bits; // bits per count
+   private int lettersPerLane;
+   private long highBits; // top bit of every count
+   private int maxCount;
+   private long[] lanes;
+   private long[] scratch; // counts of a string being checked or added
+   private int size;
+   private int hash;
+
+   // post: constructs an empty inventory of English letters
+   public PackedLetterInventory() {
+      this(Alphabet.ENGLISH);
+   }
+
+   // alphabet: Given alphabet
+   // pre: alphabet must exist (throws IllegalArgumentException if not)
+   // post: constructs an empty inventory of the letters of alphabet
+   public PackedLetterInventory(Alphabet alphabet) {
+      this(alphabet, false);
+   }
+
+   // alphabet: Given alphabet
+   // wide: Whether counts may go up to MAX_WIDE_COUNT rather than MAX_COUNT
+   // pre: alphabet must exist (throws IllegalArgumentException if not)
+   // post: constructs an empty inventory of the letters of alphabet
+   public PackedLetterInventory(Alphabet alphabet, boolean wide) {
+      if (alphabet == null) {
+         throw new IllegalArgumentException("alphabet must exist");
+      }
+      this.alphabet = alphabet;
+      bits = wide ? 16 : 8;
+      lettersPerLane = Long.SIZE / bits;
+      maxCount = wide ? MAX_WIDE_COUNT : MAX_COUNT;
+      for (int i = 0; i < lettersPerLane; i++) {
+         highBits |= 1L << (bits * i + bits - 1);
+      }
+      lanes = new long[(alphabet.size() + lettersPerLane - 1) / lettersPerLane];
+      hash = computeHash();
+   }
+
+   // data: Given string
+   // pre: no letter may occur more than MAX_COUNT times
+   //      (throws IllegalArgumentException if not)
+   // post: constructs an inventory of the English letters in data, ignoring
+   //       case and any characters that are not letters
+   public PackedLetterInventory(String data) {
+      this(data, Alphabet.ENGLISH);
+   }
+
+   // data: Given string
+   // alphabet: Given alphabet
+   // pre: alphabet must exist and no letter may occur more than MAX_COUNT times
+   //      (throws IllegalArgumentException if not)
+   // post: constructs an inventory of the letters of alphabet in data, after
+   //       folding data for the alphabet and ignoring characters that are not
+   //       in the alphabet
+   public PackedLetterInventory(String data, Alphabet alphabet) {
+      this(data, alphabet, false);
+   }
+
+   // data: Given string
+   // alphabet: Given alphabet
+   // wide: Whether counts may go up to MAX_WIDE_COUNT rather than MAX_COUNT
+   // pre: alphabet must exist and no letter may occur more than the largest
+   //      count allowed (throws IllegalArgumentException if not)
+   // post: constructs an inventory of the letters of alphabet in data, after
+   //       folding data for the alphabet and ignoring characters that are not
+   //       in the alphabet
+   public PackedLetterInventory(String data, Alphabet alphabet, boolean wide) {
+      this(alphabet, wide);
+      add(data);
+   }
+
+   // post: returns the alphabet of the inventory
+   public Alphabet alphabet() {
+      return alphabet;
+   }
+
+   // post: returns whether counts may go up to MAX_WIDE_COUNT rather than
+   //       MAX_COUNT
+   public boolean isWide() {
+      return bits == 16;
+   }
+
+   // post: returns the count of the letter that occurs most often, or 0 if
+   //       the inventory is empty
+   public int largestCount() {
+      int result = 0;
+      for (int i = 0; i < alphabet.size(); i++) {
+         result = Math.max(result, count(lanes, i));
+      }
+      return result;
+   }
+
+   // post: returns the current total count in the inventory
+   public int size() {
+      return size;
+   }
+
+   // post: returns whether or not the inventory is empty
+   public boolean isEmpty() {
+      return size == 0;
+   }
+
+   // pre: letter must be a letter of the alphabet (throws
+   //      IllegalArgumentException if not)
+   // post: returns count of how many of the letter are in the inventory
+   public int get(char letter) {
+      int index = indexOf(letter);
+      if (!alphabet.isAscii()) {
+         String folded = alphabet.fold(String.valueOf(letter));
+         index = (folded.length() > 0) ? indexOf(folded.codePointAt(0)) : -1;
+      }
+      if (index < 0) {
+         throw new IllegalArgumentException("character: " + letter);
+      }
+      return count(lanes, index);
+   }
+
+   // other: Given inventory
+   // pre: other must use the same alphabet (throws IllegalArgumentException if not)
+   // post: returns whether every letter of other occurs in this inventory at
+   //       least as many times as in other
+   public boolean contains(PackedLetterInventory other) {
+      checkAlphabet(other);
+      return contains(other.lanes);
+   }
+
+   // data: Given string
+   // post: returns whether every letter of data occurs in this inventory at
+   //       least as many times as in data
+   public boolean contains(String data) {
+      emptyScratch();
+      String letters = letters(data);
+      for (int i = 0; i < letters.length(); ) {
+         int letter = letters.codePointAt(i);
+         i += Character.charCount(letter);
+         int index = indexOf(letter);
+         if (index >= 0) {
+            if (count(scratch, index) == count(lanes, index)) {
+               return false;
+            }
+            scratch[index / lettersPerLane] += unit(index);
+         }
+      }
+      return true;
+   }
+
+   // other: Given inventory
+   // pre: other must use the same alphabet and width and no letter may end up
+   //      with more than the largest count allowed (throws
+   //      IllegalArgumentException if not)
+   // post: adds the letters of other to this inventory
+   public void add(PackedLetterInventory other) {
+      checkAlphabet(other);
+      for (int i = 0; i < lanes.length; i++) {
+         if (((lanes[i] + other.lanes[i]) & highBits) != 0) {
+            throw new IllegalArgumentException("more than " + maxCount + " of a letter");
+         }
+      }
+      for (int i = 0; i < lanes.length; i++) {
+         lanes[i] += other.lanes[i];
+      }
+      size += other.size;
+      hash = computeHash();
+   }
+
+   // data: Given string
+   // pre: no letter may end up with more than the largest count allowed
+   //      (throws IllegalArgumentException if not, leaving this inventory
+   //      unchanged)
+   // post: adds the letters of data to this inventory. The letters are
+   //       counted apart first and only added once every count is known to
+   //       fit.
+   public void add(String data) {
+      emptyScratch();
+      int added = 0;
+      String letters = letters(data);
+      for (int i = 0; i < letters.length(); ) {
+         int letter = letters.codePointAt(i);
+         i += Character.charCount(letter);
+         int index = indexOf(letter);
+         if (index >= 0) {
+            if (count(lanes, index) + count(scratch, index) == maxCount) {
+               throw new IllegalArgumentException("more than " + maxCount + " of "
+                  + new String(Character.toChars(alphabet.letterAt(index))));
+            }
+            scratch[index / lettersPerLane] += unit(index);
+            added++;
+         }
+      }
+      for (int i = 0; i < lanes.length; i++) {
+         lanes[i] += scratch[i];
+      }
+      size += added;
+      hash = computeHash();
+   }
+
+   // other: Given inventory
+   // pre: other must use the same alphabet and width and this inventory must
+   //      contain other (throws IllegalArgumentException if not)
+   // post: removes the letters of other from this inventory
+   public void subtract(PackedLetterInventory other) {
+      checkAlphabet(other);
+      if (!contains(other.lanes)) {
+         throw new IllegalArgumentException("inventory does not contain " + other);
+      }
+      for (int i = 0; i < lanes.length; i++) {
+         lanes[i] -= other.lanes[i];
+      }
+      size -= other.size;
+      hash = computeHash();
+   }
+
+   // data: Given string
+   // pre: this inventory must contain data (throws IllegalArgumentException
+   //      if not)
+   // post: removes the letters of data from this inventory
+   public void subtract(String data) {
+      if (!contains(data)) {
+         throw new IllegalArgumentException("inventory does not contain " + data);
+      }
+      String letters = letters(data);
+      for (int i = 0; i < letters.length(); ) {
+         int letter = letters.codePointAt(i);
+         i += Character.charCount(letter);
+         int index = indexOf(letter);
+         if (index >= 0) {
+            lanes[index / lettersPerLane] -= unit(index);
+            size--;
+         }
+      }
+      hash = computeHash();
+   }
+
+   // post: returns a new inventory with the same counts and width as this one
+   public PackedLetterInventory copy() {
+      PackedLetterInventory result = new PackedLetterInventory(alphabet, isWide());
+      System.arraycopy(lanes, 0, result.lanes, 0, lanes.length);
+      result.size = size;
+      result.hash = hash;
+      return result;
+   }
+
+   // wide: Whether the copy's counts may go up to MAX_WIDE_COUNT
+   // pre: every count must fit in the width of the copy
+   //      (throws IllegalArgumentException if not)
+   // post: returns a new inventory with the same counts as this one and the
+   //       given width
+   public PackedLetterInventory copy(boolean wide) {
+      if (wide == isWide()) {
+         return copy();
+      }
+      PackedLetterInventory result = new PackedLetterInventory(alphabet, wide);
+      for (int i = 0; i < alphabet.size(); i++) {
+         int count = count(lanes, i);
+         if (count > result.maxCount) {
+            throw new IllegalArgumentException("more than " + result.maxCount + " of "
+               + new String(Character.toChars(alphabet.letterAt(i))));
+         }
+         result.lanes[i / result.lettersPerLane] += count * result.unit(i);
+      }
+      result.size = size;
+      result.hash = result.computeHash();
+      return result;
+   }
+
+   // post: returns whether other is an inventory with the same counts
+   public boolean equals(Object other) {
+      if (!(other instanceof PackedLetterInventory)) {
+         return false;
+      }
+      PackedLetterInventory inventory = (PackedLetterInventory) other;
+      if (inventory.hash != hash || inventory.size != size
+            || inventory.alphabet != alphabet || inventory.bits != bits) {
+         return false;
+      }
+      for (int i = 0; i < lanes.length; i++) {
+         if (lanes[i] != inventory.lanes[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // post: returns a hash code that is kept up to date as the inventory changes
+   public int hashCode() {
+      return hash;
+   }
+
+   // post: creates an alphabetized, bracketed version of the inventory
+   public String toString() {
+      StringBuilder result = new StringBuilder(size + 2);
+      result.append('[');
+      for (int i = 0; i < alphabet.size(); i++) {
+         for (int j = count(lanes, i); j > 0; j--) {
+            result.appendCodePoint(alphabet.letterAt(i));
+         }
+      }
+      result.append(']');
+      return result.toString();
+   }
+
+   // post: returns whether every count in other is at most the matching count
+   //       in this inventory. Adding the high bit of each count before
+   //       subtracting leaves the high bit set exactly in the counts that did
+   //       not need to borrow.
+   private boolean contains(long[] other) {
+      for (int i = 0; i < lanes.length; i++) {
+         if ((((lanes[i] | highBits) - other[i]) & highBits) != highBits) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   // post: returns a hash of the counts
+   private int computeHash() {
+      long result = 0;
+      for (int i = 0; i < lanes.length; i++) {
+         result = (result + lanes[i]) * 0x9E3779B97F4A7C15L;
+      }
+      return (int) (result ^ (result >>> 32));
+   }
+
+   // pre: other must use the same alphabet and width
+   //      (throws IllegalArgumentException if not)
+   private void checkAlphabet(PackedLetterInventory other) {
+      if (other.alphabet != alphabet || other.bits != bits) {
+         throw new IllegalArgumentException("inventories use different alphabets or widths");
+      }
+   }
+
+   // post: returns data ready to be looked up one letter at a time. English
+   //       text is returned unchanged, since indexOf folds its case itself;
+   //       other text is folded for the alphabet, which allocates.
+   private String letters(String data) {
+      if (alphabet.isAscii()) {
+         return data;
+      }
+      return alphabet.fold(data);
+   }
+
+   // post: returns the position of the code point letter in the alphabet, or
+   //       -1 if it is not a letter of the alphabet
+   private int indexOf(int letter) {
+      if (alphabet.isAscii()) {
+         int index = Character.toLowerCase(letter) - 'a';
+         if (index < 0 || index >= TOTAL_CHARACTERS) {
+            return -1;
+         }
+         return index;
+      }
+      return alphabet.indexOf(letter);
+   }
+
+   // post: sets every count of scratch to 0, making it first if need be
+   private void emptyScratch() {
+      if (scratch == null) {
+         scratch = new long[lanes.length];
+      }
+      for (int i = 0; i < scratch.length; i++) {
+         scratch[i] = 0;
+      }
+   }
+
+   // post: returns the count stored for the letter at index in lanes
+   private int count(long[] lanes, int index) {
+      return (int) (lanes[index / lettersPerLane] >>> (bits * (index % lettersPerLane)))
+         & (2 * maxCount + 1);
+   }
+
+   // post: returns the value that adds one to the count of the letter at index
+   private long unit(int index) {
+      return 1L << (bits * (index % lettersPerLane));
+   }
+}